@@ -0,0 +1,286 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the threads of the analysis from a slow {@link LogOutput}, for example a console over a network link.
+ * Messages are stored in a bounded lock-free ring buffer and written to the wrapped output by a dedicated thread.
+ * <p>
+ * Usage: {@code EmbeddedScanner.create(new AsyncLogOutput(output))}, then {@link #close()} once the scanner is stopped
+ * to write the remaining messages.
+ *
+ * @since 2.10
+ */
+public class AsyncLogOutput implements LogOutput, AutoCloseable {
+
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * What to do when the buffer is full
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait until the buffer has room. No message is lost.
+     */
+    BLOCK,
+    /**
+     * Drop DEBUG and TRACE messages, wait for other levels
+     */
+    DROP_DEBUG,
+    /**
+     * Drop all messages. The number of dropped messages is logged later.
+     */
+    DROP
+  }
+
+  private static final long IDLE_PARK_NANOSECONDS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long FULL_PARK_NANOSECONDS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final LogOutput delegate;
+  private final OverflowPolicy overflowPolicy;
+  private final int mask;
+  private final String[] messages;
+  private final Level[] levels;
+  // Sequence of each slot, see "Bounded MPMC queue" by Dmitry Vyukov. Only one consumer here.
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private long head = 0L;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong droppedSinceLastReport = new AtomicLong();
+  private final Thread drainThread;
+  private volatile boolean drainWaiting = false;
+  // producers between the check of the closed flag and the publication of their message
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile boolean closed = false;
+  private volatile boolean stopDraining = false;
+  private final CountDownLatch drained = new CountDownLatch(1);
+
+  public AsyncLogOutput(LogOutput delegate) {
+    this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * @param capacity maximum number of pending messages, rounded up to a power of two
+   */
+  public AsyncLogOutput(LogOutput delegate, int capacity, OverflowPolicy overflowPolicy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.delegate = delegate;
+    this.overflowPolicy = overflowPolicy;
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.messages = new String[size];
+    this.levels = new Level[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.drainThread = new Thread(this::drainLoop, "sonar-scanner-log-output");
+    this.drainThread.setDaemon(true);
+    this.drainThread.start();
+  }
+
+  @Override
+  public void log(String formattedMessage, Level level) {
+    inFlight.incrementAndGet();
+    try {
+      if (!closed) {
+        enqueue(formattedMessage, level);
+        return;
+      }
+    } finally {
+      inFlight.decrementAndGet();
+    }
+    // closed: pending messages are written first, so that the order is kept
+    awaitDrained();
+    delegate.log(formattedMessage, level);
+  }
+
+  private void enqueue(String formattedMessage, Level level) {
+    while (!offer(formattedMessage, level)) {
+      if (overflowPolicy == OverflowPolicy.DROP || (overflowPolicy == OverflowPolicy.DROP_DEBUG && isDebugOrTrace(level))) {
+        dropped.incrementAndGet();
+        droppedSinceLastReport.incrementAndGet();
+        return;
+      }
+      wakeUpDrainThread();
+      LockSupport.parkNanos(FULL_PARK_NANOSECONDS);
+    }
+    if (drainWaiting) {
+      wakeUpDrainThread();
+    }
+  }
+
+  @Override
+  public boolean isEnabled(Level level) {
+    return delegate.isEnabled(level);
+  }
+
+  /**
+   * Number of messages dropped because the buffer was full
+   */
+  public long droppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Write the pending messages and stop the drain thread. Next messages are written synchronously, after
+   * the pending ones. Pending messages are written even if the calling thread is interrupted.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      awaitDrained();
+      return;
+    }
+    closed = true;
+    // producers that didn't see the flag complete their publication, waiting for room if needed
+    while (inFlight.get() != 0) {
+      wakeUpDrainThread();
+      LockSupport.parkNanos(FULL_PARK_NANOSECONDS);
+    }
+    stopDraining = true;
+    wakeUpDrainThread();
+    boolean interrupted = false;
+    while (drainThread.isAlive()) {
+      try {
+        drainThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void awaitDrained() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        drained.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean isDebugOrTrace(Level level) {
+    return level == Level.DEBUG || level == Level.TRACE;
+  }
+
+  private boolean offer(String message, Level level) {
+    while (true) {
+      long pos = tail.get();
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          messages[index] = message;
+          levels[index] = level;
+          // publishes the slot to the drain thread
+          sequences.set(index, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+      // else another producer claimed this slot, retry with the new tail
+    }
+  }
+
+  /**
+   * Only called by the drain thread
+   */
+  private boolean poll() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) != head + 1) {
+      return false;
+    }
+    String message = messages[index];
+    Level level = levels[index];
+    messages[index] = null;
+    levels[index] = null;
+    sequences.set(index, head + mask + 1);
+    head++;
+    try {
+      delegate.log(message, level);
+    } catch (RuntimeException e) {
+      // the drain thread must survive errors of the output
+    }
+    return true;
+  }
+
+  private void drainLoop() {
+    try {
+      while (true) {
+        if (poll()) {
+          continue;
+        }
+        reportDropped();
+        if (stopDraining) {
+          // no producer is in flight anymore, so all the claimed slots are published
+          while (poll()) {
+            // drain
+          }
+          reportDropped();
+          return;
+        }
+        drainWaiting = true;
+        if (sequences.get((int) (head & mask)) != head + 1 && !stopDraining) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOSECONDS);
+        }
+        drainWaiting = false;
+      }
+    } finally {
+      drained.countDown();
+    }
+  }
+
+  private void reportDropped() {
+    long count = droppedSinceLastReport.getAndSet(0L);
+    if (count > 0) {
+      try {
+        delegate.log(count + " log messages were dropped because the output was too slow", Level.WARN);
+      } catch (RuntimeException e) {
+        // the drain thread must survive errors of the output
+      }
+    }
+  }
+
+  private void wakeUpDrainThread() {
+    LockSupport.unpark(drainThread);
+  }
+}
@@ -27,10 +27,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.sonarsource.scanner.api.internal.ClassloadRules;
 import org.sonarsource.scanner.api.internal.InternalProperties;
 import org.sonarsource.scanner.api.internal.IsolatedLauncherFactory;
+import org.sonarsource.scanner.api.internal.LauncherPool;
+import org.sonarsource.scanner.api.internal.LauncherPool.PooledLauncher;
 import org.sonarsource.scanner.api.internal.VersionUtils;
 import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
 import org.sonarsource.scanner.api.internal.cache.Logger;
@@ -41,17 +45,26 @@ import org.sonarsource.scanner.api.internal.cache.Logger;
  */
 public class EmbeddedScanner {
   private final IsolatedLauncherFactory launcherFactory;
+  private final LauncherPool launcherPool;
   private IsolatedLauncher launcher;
+  private PooledLauncher pooledLauncher;
   private final LogOutput logOutput;
   private final Properties globalProperties = new Properties();
   private final List<Object> extensions = new ArrayList<>();
   private final Logger logger;
   private final Set<String> classloaderMask = new HashSet<>();
   private final Set<String> classloaderUnmask = new HashSet<>();
+  private CompletableFuture<IsolatedLauncher> preparedLauncher;
+  private LauncherPool.Key preparedKey;
 
   EmbeddedScanner(IsolatedLauncherFactory bl, Logger logger, LogOutput logOutput) {
+    this(bl, LauncherPool.getInstance(), logger, logOutput);
+  }
+
+  EmbeddedScanner(IsolatedLauncherFactory bl, LauncherPool launcherPool, Logger logger, LogOutput logOutput) {
     this.logger = logger;
     this.launcherFactory = bl;
+    this.launcherPool = launcherPool;
     this.logOutput = logOutput;
     this.classloaderUnmask.add("org.sonarsource.scanner.api.internal.batch.");
   }
@@ -156,6 +169,31 @@ public class EmbeddedScanner {
     doStart();
   }
 
+  /**
+   * Fetches the engine jars and creates its classloader in background, so that {@link #start()} finds the engine
+   * ready. Global properties and classloader rules must be set before: if they change afterwards, the prepared
+   * engine is discarded by {@link #start()}. Failures are reported by the returned future and again by {@link #start()}.
+   * @since 2.10
+   */
+  public CompletableFuture<Void> prepareAsync() {
+    checkLauncherDoesntExist();
+    if (preparedLauncher != null) {
+      throw new IllegalStateException("already prepared");
+    }
+    initGlobalDefaultValues();
+    Properties props = globalProperties();
+    ClassloadRules rules = new ClassloadRules(classloaderMask, classloaderUnmask);
+    preparedKey = LauncherPool.key(props, classloaderMask, classloaderUnmask);
+    preparedLauncher = CompletableFuture.supplyAsync(() -> launcherFactory.createLauncher(props, rules), EmbeddedScanner::runInBackground);
+    return preparedLauncher.thenApply(l -> null);
+  }
+
+  private static void runInBackground(Runnable task) {
+    Thread t = new Thread(task, "sonar-scanner-prepare");
+    t.setDaemon(true);
+    t.start();
+  }
+
   /**
    * Stops the batch.
    * Only supported starting in SQ 5.2. For older versions, this is a no-op.
@@ -214,15 +252,83 @@ public class EmbeddedScanner {
 
   protected void doStart() {
     checkLauncherDoesntExist();
-    ClassloadRules rules = new ClassloadRules(classloaderMask, classloaderUnmask);
-    launcher = launcherFactory.createLauncher(globalProperties(), rules);
+    if (Boolean.parseBoolean(globalProperty(InternalProperties.SCANNER_LAUNCHER_POOL, null))) {
+      startPooled();
+      return;
+    }
+    launcher = createLauncher();
     if (VersionUtils.isAtLeast52(launcher.getVersion())) {
-      launcher.start(globalProperties(), (formattedMessage, level) -> logOutput.log(formattedMessage, LogOutput.Level.valueOf(level.name())));
+      launcher.start(globalProperties(), newBatchLogOutput());
     }
   }
 
+  private IsolatedLauncher createLauncher() {
+    CompletableFuture<IsolatedLauncher> prepared = preparedLauncher;
+    preparedLauncher = null;
+    if (prepared != null) {
+      if (preparedKey.equals(LauncherPool.key(globalProperties, classloaderMask, classloaderUnmask))) {
+        return awaitPrepared(prepared);
+      }
+      logger.debug("Configuration changed since the scanner engine was prepared");
+      discard(prepared);
+    }
+    ClassloadRules rules = new ClassloadRules(classloaderMask, classloaderUnmask);
+    return launcherFactory.createLauncher(globalProperties(), rules);
+  }
+
+  /**
+   * The prepared launcher was never started. Its classloader is released as soon as the preparation completes.
+   */
+  private void discard(CompletableFuture<IsolatedLauncher> prepared) {
+    prepared.thenAccept(launcherFactory::release);
+  }
+
+  private static IsolatedLauncher awaitPrepared(CompletableFuture<IsolatedLauncher> prepared) {
+    try {
+      return prepared.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while preparing the scanner engine", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Fail to prepare the scanner engine", e.getCause());
+    }
+  }
+
+  private void startPooled() {
+    LauncherPool.Key key = LauncherPool.key(globalProperties, classloaderMask, classloaderUnmask);
+    pooledLauncher = launcherPool.lease(key);
+    if (pooledLauncher == null) {
+      launcher = createLauncher();
+      if (!VersionUtils.isAtLeast52(launcher.getVersion())) {
+        // no start/stop lifecycle, nothing worth keeping warm
+        return;
+      }
+      pooledLauncher = PooledLauncher.start(key, launcher, globalProperties(), newBatchLogOutput());
+    } else {
+      if (preparedLauncher != null) {
+        discard(preparedLauncher);
+        preparedLauncher = null;
+      }
+      logger.debug("Reuse started scanner engine");
+      launcherFactory.recordAccess(pooledLauncher.launcher());
+      pooledLauncher.setLogOutput(newBatchLogOutput());
+    }
+    launcher = pooledLauncher.launcher();
+  }
+
+  private org.sonarsource.scanner.api.internal.batch.LogOutput newBatchLogOutput() {
+    return new LogOutputBridge(logOutput);
+  }
+
   protected void doStop() {
-    if (VersionUtils.isAtLeast52(launcher.getVersion())) {
+    if (pooledLauncher != null) {
+      launcherPool.release(pooledLauncher);
+      pooledLauncher = null;
+      launcher = null;
+    } else if (VersionUtils.isAtLeast52(launcher.getVersion())) {
       launcher.stop();
       launcher = null;
     }
@@ -23,7 +23,15 @@ package org.sonarsource.scanner.api;
 public interface LogOutput {
   
   void log(String formattedMessage, Level level);
-  
+
+  /**
+   * Implementations can declare the levels they drop, so that the corresponding messages are not even built.
+   * @since 2.10
+   */
+  default boolean isEnabled(Level level) {
+    return true;
+  }
+
   enum Level {
     ERROR, WARN, INFO, DEBUG, TRACE;
   }
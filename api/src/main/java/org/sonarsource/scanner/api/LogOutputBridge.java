@@ -0,0 +1,65 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api;
+
+/**
+ * Forwards the logs of the scanner engine, received through the isolated classloader, to the {@link LogOutput}
+ * of the host. Levels are mapped with a table computed once, and messages of levels disabled by the host are
+ * dropped before reaching its code.
+ */
+class LogOutputBridge implements org.sonarsource.scanner.api.internal.batch.LogOutput {
+
+  private static final LogOutput.Level[] LEVELS;
+
+  static {
+    org.sonarsource.scanner.api.internal.batch.LogOutput.Level[] batchLevels = org.sonarsource.scanner.api.internal.batch.LogOutput.Level.values();
+    LEVELS = new LogOutput.Level[batchLevels.length];
+    for (org.sonarsource.scanner.api.internal.batch.LogOutput.Level level : batchLevels) {
+      LEVELS[level.ordinal()] = levelOf(level.name());
+    }
+  }
+
+  /**
+   * Levels unknown to the host are logged as {@link LogOutput.Level#INFO}, so that a newer scanner engine can't prevent
+   * this class from being initialized.
+   */
+  static LogOutput.Level levelOf(String name) {
+    for (LogOutput.Level level : LogOutput.Level.values()) {
+      if (level.name().equals(name)) {
+        return level;
+      }
+    }
+    return LogOutput.Level.INFO;
+  }
+
+  private final LogOutput logOutput;
+
+  LogOutputBridge(LogOutput logOutput) {
+    this.logOutput = logOutput;
+  }
+
+  @Override
+  public void log(String formattedMessage, Level level) {
+    LogOutput.Level apiLevel = LEVELS[level.ordinal()];
+    if (logOutput.isEnabled(apiLevel)) {
+      logOutput.log(formattedMessage, apiLevel);
+    }
+  }
+}
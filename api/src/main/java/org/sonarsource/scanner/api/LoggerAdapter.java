@@ -55,6 +55,13 @@ class LoggerAdapter implements Logger {
 
   @Override
   public void debug(String msg) {
-    logOutput.log(msg, LogOutput.Level.DEBUG);
+    if (isDebugEnabled()) {
+      logOutput.log(msg, LogOutput.Level.DEBUG);
+    }
+  }
+
+  @Override
+  public boolean isDebugEnabled() {
+    return logOutput.isEnabled(LogOutput.Level.DEBUG);
   }
 }
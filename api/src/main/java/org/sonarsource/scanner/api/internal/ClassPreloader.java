@@ -0,0 +1,128 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
+import org.sonarsource.scanner.api.internal.cache.Logger;
+
+/**
+ * Classes of the engine loaded during a previous run, stored in the user cache for each classpath. They are
+ * loaded again in parallel while the engine starts, instead of one after the other by the thread starting it.
+ */
+class ClassPreloader {
+  static final String METADATA_KEY_PREFIX = "preload-classes|";
+  private static final String CLASSES = "classes";
+  private static final int BATCH_SIZE = 64;
+
+  private final FileCache fileCache;
+  private final Logger logger;
+
+  ClassPreloader(FileCache fileCache, Logger logger) {
+    this.fileCache = fileCache;
+    this.logger = logger;
+  }
+
+  /**
+   * Classes recorded for this classpath, or an empty list if nothing was recorded.
+   */
+  List<String> recorded(List<File> classpath) {
+    Properties props = fileCache.getMetadata(key(classpath));
+    String classes = props != null ? props.getProperty(CLASSES) : null;
+    if (classes == null || classes.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Arrays.asList(classes.split(","));
+  }
+
+  void record(List<File> classpath, Collection<String> classNames) {
+    Properties props = new Properties();
+    props.setProperty(CLASSES, String.join(",", classNames));
+    fileCache.putMetadata(key(classpath), props);
+    logger.debug(() -> String.format("Recorded %d classes to preload", classNames.size()));
+  }
+
+  /**
+   * Loads, without initializing them, the given classes on a dedicated fork-join pool. The pool is shut down
+   * once they are all loaded, so the returned task doesn't need to be waited for. Classes that can't be loaded
+   * are ignored.
+   */
+  static ForkJoinTask<Integer> preloadInParallel(ClassLoader cl, List<String> classNames, Logger logger) {
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    long start = System.nanoTime();
+    ForkJoinTask<Integer> task = pool.submit(() -> {
+      int loaded = new PreloadTask(cl, classNames).invoke();
+      logger.debug(() -> String.format("Preloaded %d/%d classes in %d ms", loaded, classNames.size(), (System.nanoTime() - start) / 1_000_000));
+      return loaded;
+    });
+    pool.shutdown();
+    return task;
+  }
+
+  private String key(List<File> classpath) {
+    StringBuilder sb = new StringBuilder();
+    for (File file : classpath) {
+      sb.append(file.getAbsolutePath()).append(File.pathSeparatorChar);
+    }
+    return METADATA_KEY_PREFIX + fileCache.hash(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static class PreloadTask extends RecursiveTask<Integer> {
+    private final ClassLoader cl;
+    private final List<String> classNames;
+
+    PreloadTask(ClassLoader cl, List<String> classNames) {
+      this.cl = cl;
+      this.classNames = classNames;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (classNames.size() > BATCH_SIZE) {
+        int middle = classNames.size() / 2;
+        PreloadTask first = new PreloadTask(cl, classNames.subList(0, middle));
+        first.fork();
+        int loaded = new PreloadTask(cl, classNames.subList(middle, classNames.size())).compute();
+        return loaded + first.join();
+      }
+      int loaded = 0;
+      for (String className : classNames) {
+        try {
+          Class.forName(className, false, cl);
+          loaded++;
+        } catch (ClassNotFoundException | LinkageError e) {
+          // class removed from the engine since the list was recorded
+        }
+      }
+      return loaded;
+    }
+  }
+}
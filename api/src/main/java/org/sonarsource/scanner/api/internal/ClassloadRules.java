@@ -19,44 +19,116 @@
  */
 package org.sonarsource.scanner.api.internal;
 
-import javax.annotation.concurrent.Immutable;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.concurrent.ThreadSafe;
 
-@Immutable
+/**
+ * Rules telling which classes can be loaded from the parent classloader. The longest matching prefix wins,
+ * and in case of tie between mask and unmask the class is masked.
+ * Prefixes are stored in a trie, so that the best match is found in a single pass over the class name.
+ */
+@ThreadSafe
 public class ClassloadRules {
-  private final List<String> mask;
-  private final List<String> unmask;
+  static final int MAX_CACHED_PACKAGES = 10_000;
+
+  private static final int MASK = 1;
+  private static final int UNMASK = 2;
+
+  private final Node root = new Node();
+  // decisions of the packages that don't have rules specific to some of their classes
+  private final Map<String, Boolean> decisionsByPackage = new ConcurrentHashMap<>();
 
   public ClassloadRules(Set<String> maskRules, Set<String> unmaskRules) {
-    this.mask = new ArrayList<>(maskRules);
-    this.unmask = new ArrayList<>(unmaskRules);
+    for (String prefix : maskRules) {
+      root.add(prefix, MASK);
+    }
+    for (String prefix : unmaskRules) {
+      root.add(prefix, UNMASK);
+    }
   }
 
   public boolean canLoad(String className) {
+    int lastDot = className.lastIndexOf('.');
+    String packageName = lastDot < 0 ? null : className.substring(0, lastDot + 1);
+    if (packageName != null) {
+      Boolean cached = decisionsByPackage.get(packageName);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    int maskSize = -1;
+    int unmaskSize = -1;
+    Node node = root;
+    int i = 0;
+    while (true) {
+      if ((node.flags & MASK) != 0) {
+        maskSize = i;
+      }
+      if ((node.flags & UNMASK) != 0) {
+        unmaskSize = i;
+      }
+      Node child = i < className.length() ? node.child(className.charAt(i)) : null;
+      if (child == null) {
+        break;
+      }
+      node = child;
+      i++;
+    }
     // if there is a tie -> block it
-    return unmaskSize(className) > maskSize(className);
-  }
+    boolean canLoad = unmaskSize > maskSize;
 
-  private int maskSize(String className) {
-    return findBestMatch(mask, className);
+    // the decision applies to the whole package if the walk did not go further than the package name
+    boolean sameForPackage = i <= lastDot || (i == lastDot + 1 && node.isLeaf());
+    if (packageName != null && sameForPackage && decisionsByPackage.size() < MAX_CACHED_PACKAGES) {
+      decisionsByPackage.put(packageName, canLoad);
+    }
+    return canLoad;
   }
 
-  private int unmaskSize(String className) {
-    return findBestMatch(unmask, className);
-  }
+  private static class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private int flags;
 
-  private static int findBestMatch(List<String> list, String name) {
-    // there can be a match of 0 ("")
-    int bestMatch = -1;
-    for (String s : list) {
-      if (name.startsWith(s) && s.length() > bestMatch) {
-        bestMatch = s.length();
+    void add(String prefix, int flag) {
+      Node node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.getOrCreateChild(prefix.charAt(i));
       }
+      node.flags |= flag;
     }
 
-    return bestMatch;
+    boolean isLeaf() {
+      return keys.length == 0;
+    }
+
+    Node child(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      return index >= 0 ? children[index] : null;
+    }
+
+    private Node getOrCreateChild(char c) {
+      int index = Arrays.binarySearch(keys, c);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insertion = -index - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insertion);
+      System.arraycopy(children, 0, newChildren, 0, insertion);
+      System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+      System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+      Node child = new Node();
+      newKeys[insertion] = c;
+      newChildren[insertion] = child;
+      keys = newKeys;
+      children = newChildren;
+      return child;
+    }
   }
 }
@@ -25,4 +25,16 @@ public interface InternalProperties {
   String SCANNER_DUMP_TO_FILE_DEPRECATED = "sonarRunner.dumpToFile";
   String SCANNER_DUMP_TO_FILE = "sonar.scanner.dumpToFile";
   String SCANNER_VERSION_SIMULATION = "sonar.scanner.versionSimulation";
+  String SCANNER_DOWNLOAD_THREADS = "sonar.scanner.downloadThreads";
+  String SCANNER_OFFLINE_BOOTSTRAP = "sonar.scanner.offlineBootstrap";
+  String SCANNER_CACHE_MAX_SIZE_MB = "sonar.scanner.cacheMaxSizeMb";
+  String SCANNER_CACHE_MAX_AGE_DAYS = "sonar.scanner.cacheMaxAgeDays";
+  String SCANNER_TEMP_CLEANING_BUDGET_MS = "sonar.scanner.tempCleaningBudgetMs";
+  String SCANNER_CACHE_VERIFY = "sonar.scanner.verifyCache";
+  String SCANNER_LAUNCHER_POOL = "sonar.scanner.launcherPool";
+  String SCANNER_HTTP_MAX_ATTEMPTS = "sonar.scanner.httpMaxAttempts";
+  String SCANNER_HTTP_RETRY_BASE_DELAY_MS = "sonar.scanner.httpRetryBaseDelayMs";
+  String SCANNER_HTTP_RETRY_MAX_DELAY_MS = "sonar.scanner.httpRetryMaxDelayMs";
+  String SCANNER_PRELOAD_CLASSES = "sonar.scanner.preloadClasses";
+  String SCANNER_RECORD_PRELOAD_CLASSES = "sonar.scanner.recordPreloadClasses";
 }
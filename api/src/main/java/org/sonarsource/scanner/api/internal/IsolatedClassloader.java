@@ -19,19 +19,48 @@
  */
 package org.sonarsource.scanner.api.internal;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
 
 /**
  * Special {@link java.net.URLClassLoader} to execute batch, which restricts loading from parent.
+ * It is parallel capable: classes are loaded concurrently, with a lock per class name.
+ * Classes and resources are looked up only in the jars containing their package, see {@link PackageIndex}.
  */
 class IsolatedClassloader extends URLClassLoader {
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  private static final Pattern SAFE_RESOURCE_NAME = Pattern.compile("[A-Za-z0-9/._$\\-]*");
+
   private final ClassloadRules rules;
+  private final List<File> files = new ArrayList<>();
+  private final List<URL> urls = new ArrayList<>();
+  private volatile PackageIndex index;
+  // slots are opened lazily, without lock, and published with a CAS
+  private volatile AtomicReferenceArray<JarFile> jars = new AtomicReferenceArray<>(0);
+  private volatile boolean closed;
+  private volatile Collection<String> loadedClasses;
 
   /**
    * The parent classloader is used only for loading classes and resources in unmasked packages
@@ -44,42 +73,53 @@ class IsolatedClassloader extends URLClassLoader {
   void addFiles(List<File> files) {
     try {
       for (File file : files) {
-        addURL(file.toURI().toURL());
+        URL url = file.toURI().toURL();
+        addURL(url);
+        this.files.add(file);
+        this.urls.add(url);
       }
     } catch (MalformedURLException e) {
       throw new IllegalStateException("Fail to create classloader", e);
     }
+    synchronized (this.files) {
+      AtomicReferenceArray<JarFile> previous = jars;
+      AtomicReferenceArray<JarFile> resized = new AtomicReferenceArray<>(this.files.size());
+      for (int i = 0; i < previous.length(); i++) {
+        resized.set(i, previous.get(i));
+      }
+      jars = resized;
+      index = PackageIndex.build(this.files);
+    }
+  }
+
+  /**
+   * Starts recording the names of the classes loaded from the jars of this classloader, in loading order.
+   */
+  void recordLoadedClasses() {
+    loadedClasses = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Classes recorded since {@link #recordLoadedClasses()}, or an empty list if recording was not started.
+   */
+  List<String> loadedClasses() {
+    Collection<String> recorded = loadedClasses;
+    return recorded != null ? new ArrayList<>(recorded) : Collections.<String>emptyList();
   }
 
   /**
    * Same behavior as in {@link java.net.URLClassLoader#loadClass(String, boolean)}, except loading from parent.
    */
   @Override
-  protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-    // First, check if the class has already been loaded
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    // First, check if the class has already been loaded. This does not require any lock.
     Class<?> c = findLoadedClass(name);
     if (c == null) {
-      try {
-        // Load from parent
-        if (getParent() != null && rules.canLoad(name)) {
-          c = getParent().loadClass(name);
-        } else {
-
-          // Load from system
-
-          // I don't know for other vendors, but for Oracle JVM :
-          // - ClassLoader.getSystemClassLoader() is sun.misc.Launcher$AppClassLoader. It contains app classpath.
-          // - ClassLoader.getSystemClassLoader().getParent() is sun.misc.Launcher$ExtClassLoader. It contains core JVM
-          ClassLoader systemClassLoader = getSystemClassLoader();
-          if (systemClassLoader.getParent() != null) {
-            systemClassLoader = systemClassLoader.getParent();
-          }
-          c = systemClassLoader.loadClass(name);
+      synchronized (getClassLoadingLock(name)) {
+        c = findLoadedClass(name);
+        if (c == null) {
+          c = loadClassFromParentOrSelf(name);
         }
-      } catch (ClassNotFoundException e) {
-        // If still not found, then invoke findClass in order
-        // to find the class.
-        c = findClass(name);
       }
     }
     if (resolve) {
@@ -88,6 +128,191 @@ class IsolatedClassloader extends URLClassLoader {
     return c;
   }
 
+  private Class<?> loadClassFromParentOrSelf(String name) throws ClassNotFoundException {
+    try {
+      // Load from parent
+      if (getParent() != null && rules.canLoad(name)) {
+        return getParent().loadClass(name);
+      } else {
+
+        // Load from system
+
+        // I don't know for other vendors, but for Oracle JVM :
+        // - ClassLoader.getSystemClassLoader() is sun.misc.Launcher$AppClassLoader. It contains app classpath.
+        // - ClassLoader.getSystemClassLoader().getParent() is sun.misc.Launcher$ExtClassLoader. It contains core JVM
+        ClassLoader systemClassLoader = getSystemClassLoader();
+        if (systemClassLoader.getParent() != null) {
+          systemClassLoader = systemClassLoader.getParent();
+        }
+        return systemClassLoader.loadClass(name);
+      }
+    } catch (ClassNotFoundException e) {
+      // If still not found, then invoke findClass in order
+      // to find the class.
+      return findClass(name);
+    }
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    PackageIndex packageIndex = index;
+    if (packageIndex == null) {
+      return super.findClass(name);
+    }
+    String path = name.replace('.', '/').concat(".class");
+    for (int i : packageIndex.jarsOf(path)) {
+      JarFile jar = jar(i);
+      JarEntry entry = jar != null ? jar.getJarEntry(path) : null;
+      if (entry != null) {
+        Class<?> c = defineClass(name, urls.get(i), jar, entry);
+        Collection<String> recorded = loadedClasses;
+        if (recorded != null) {
+          recorded.add(name);
+        }
+        return c;
+      }
+    }
+    throw new ClassNotFoundException(name);
+  }
+
+  private Class<?> defineClass(String name, URL url, JarFile jar, JarEntry entry) throws ClassNotFoundException {
+    byte[] bytes;
+    try (InputStream in = jar.getInputStream(entry)) {
+      bytes = readFully(in);
+      definePackageIfNeeded(name, jar.getManifest(), url);
+    } catch (IOException e) {
+      throw new ClassNotFoundException(name, e);
+    }
+    // code signers are available once the entry has been fully read
+    return defineClass(name, bytes, 0, bytes.length, new CodeSource(url, entry.getCodeSigners()));
+  }
+
+  private void definePackageIfNeeded(String className, @CheckForNull Manifest manifest, URL url) {
+    int lastDot = className.lastIndexOf('.');
+    if (lastDot < 0) {
+      return;
+    }
+    String packageName = className.substring(0, lastDot);
+    if (getPackage(packageName) != null) {
+      return;
+    }
+    try {
+      if (manifest != null) {
+        definePackage(packageName, manifest, url);
+      } else {
+        definePackage(packageName, null, null, null, null, null, null, null);
+      }
+    } catch (IllegalArgumentException e) {
+      // package defined concurrently by another thread
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public URL findResource(String name) {
+    PackageIndex packageIndex = index;
+    if (packageIndex == null || !SAFE_RESOURCE_NAME.matcher(name).matches()) {
+      return super.findResource(name);
+    }
+    for (int i : packageIndex.jarsOf(name)) {
+      URL url = resourceUrl(i, name);
+      if (url != null) {
+        return url;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Enumeration<URL> findResources(String name) throws IOException {
+    PackageIndex packageIndex = index;
+    if (packageIndex == null || !SAFE_RESOURCE_NAME.matcher(name).matches()) {
+      return super.findResources(name);
+    }
+    List<URL> resources = new ArrayList<>();
+    for (int i : packageIndex.jarsOf(name)) {
+      URL url = resourceUrl(i, name);
+      if (url != null) {
+        resources.add(url);
+      }
+    }
+    return Collections.enumeration(resources);
+  }
+
+  @CheckForNull
+  private URL resourceUrl(int jarIndex, String name) {
+    JarFile jar = jar(jarIndex);
+    if (jar == null || jar.getEntry(name) == null) {
+      return null;
+    }
+    try {
+      return new URL("jar:" + urls.get(jarIndex) + "!/" + name);
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Jars are opened lazily, the same way as {@link URLClassLoader} does. No lock is taken: if two threads open
+   * the same jar concurrently, the loser closes its copy. Returns null once the classloader is closed.
+   */
+  @CheckForNull
+  private JarFile jar(int i) {
+    if (closed) {
+      return null;
+    }
+    AtomicReferenceArray<JarFile> openedJars = jars;
+    JarFile jar = openedJars.get(i);
+    if (jar != null) {
+      return jar;
+    }
+    try {
+      jar = new JarFile(files.get(i));
+    } catch (IOException e) {
+      return null;
+    }
+    if (!openedJars.compareAndSet(i, null, jar)) {
+      closeQuietly(jar);
+      return closed ? null : openedJars.get(i);
+    }
+    if (closed && openedJars.compareAndSet(i, jar, null)) {
+      // close() started after the check above and may have missed this slot
+      closeQuietly(jar);
+      return null;
+    }
+    return jar;
+  }
+
+  private static void closeQuietly(JarFile jar) {
+    try {
+      jar.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    AtomicReferenceArray<JarFile> openedJars = jars;
+    for (int i = 0; i < openedJars.length(); i++) {
+      JarFile jar = openedJars.getAndSet(i, null);
+      if (jar != null) {
+        jar.close();
+      }
+    }
+    super.close();
+  }
+
   /**
    * Unlike {@link java.net.URLClassLoader#getResource(String)} don't return resource from parent.
    * See http://jira.codehaus.org/browse/SONAR-2276
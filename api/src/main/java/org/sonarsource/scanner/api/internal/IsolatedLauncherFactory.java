@@ -20,11 +20,18 @@
 package org.sonarsource.scanner.api.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import javax.annotation.Nullable;
 import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
+import org.sonarsource.scanner.api.internal.batch.LogOutput;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 public class IsolatedLauncherFactory {
@@ -46,7 +53,7 @@ public class IsolatedLauncherFactory {
     this(ISOLATED_LAUNCHER_IMPL, new TempCleaning(logger), logger);
   }
 
-  private ClassLoader createClassLoader(List<File> jarFiles, ClassloadRules maskRules) {
+  private IsolatedClassloader createClassLoader(List<File> jarFiles, ClassloadRules maskRules) {
     IsolatedClassloader classloader = new IsolatedClassloader(getClass().getClassLoader(), maskRules);
     classloader.addFiles(jarFiles);
 
@@ -64,21 +71,47 @@ public class IsolatedLauncherFactory {
     ServerConnection serverConnection = ServerConnection.create(props, logger);
     JarDownloader jarDownloader = new JarDownloader(serverConnection, logger, props);
 
-    return createLauncher(jarDownloader, rules);
+    return createLauncher(jarDownloader, rules, props);
   }
 
   IsolatedLauncher createLauncher(final JarDownloader jarDownloader, final ClassloadRules rules) {
+    return createLauncher(jarDownloader, rules, new Properties());
+  }
+
+  IsolatedLauncher createLauncher(final JarDownloader jarDownloader, final ClassloadRules rules, final Properties props) {
     return AccessController.doPrivileged(new PrivilegedAction<IsolatedLauncher>() {
       @Override
       public IsolatedLauncher run() {
         try {
           List<File> jarFiles = jarDownloader.download();
           logger.debug("Create isolated classloader...");
-          ClassLoader cl = createClassLoader(jarFiles, rules);
+          IsolatedClassloader cl = createClassLoader(jarFiles, rules);
+          boolean recordClasses = Boolean.parseBoolean(props.getProperty(InternalProperties.SCANNER_RECORD_PRELOAD_CLASSES));
+          if (recordClasses) {
+            cl.recordLoadedClasses();
+          }
           IsolatedLauncher objProxy = IsolatedLauncherProxy.create(cl, IsolatedLauncher.class, launcherImplClassName, logger);
-          tempCleaning.clean();
+          tempCleaning.cleanInBackground(PropertyValues.longValue(props, InternalProperties.SCANNER_TEMP_CLEANING_BUDGET_MS,
+            TempCleaning.DEFAULT_TIME_BUDGET_MILLISECONDS));
 
-          return objProxy;
+          Set<String> classesToPreload = new LinkedHashSet<>(preloadedClasses(props));
+          IsolatedLauncher launcher = objProxy;
+          FileCache fileCache = jarDownloader.fileCache();
+          if (fileCache != null) {
+            ClassPreloader classPreloader = new ClassPreloader(fileCache, logger);
+            Runnable classesRecording = null;
+            if (recordClasses) {
+              classesRecording = () -> classPreloader.record(jarFiles, cl.loadedClasses());
+            } else {
+              classesToPreload.addAll(classPreloader.recorded(jarFiles));
+            }
+            launcher = new CachedLauncher(objProxy, () -> fileCache.recordAccess(jarFiles), classesRecording);
+          }
+          if (!classesToPreload.isEmpty()) {
+            // loaded concurrently while the engine starts
+            ClassPreloader.preloadInParallel(cl, new ArrayList<>(classesToPreload), logger);
+          }
+          return launcher;
         } catch (Exception e) {
           // Catch all other exceptions, which relates to reflection
           throw new ScannerException("Unable to execute SonarQube", e);
@@ -86,4 +119,91 @@ public class IsolatedLauncherFactory {
       }
     });
   }
+
+  /**
+   * Releases a launcher that was created but never started, by closing its classloader.
+   */
+  public void release(IsolatedLauncher launcher) {
+    IsolatedLauncher delegate = launcher instanceof CachedLauncher ? ((CachedLauncher) launcher).launcher : launcher;
+    try {
+      IsolatedLauncherProxy.closeClassLoader(delegate);
+    } catch (IOException e) {
+      logger.warn("Fail to close the classloader of the scanner engine: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Records that the files of a started launcher are still used, for example when it's reused from the
+   * {@link LauncherPool}, so that they are not evicted from the user cache by other processes.
+   */
+  public void recordAccess(IsolatedLauncher launcher) {
+    if (launcher instanceof CachedLauncher) {
+      ((CachedLauncher) launcher).accessRecording.run();
+    }
+  }
+
+  /**
+   * Launcher of an engine whose files are in the user cache. If requested, records the classes loaded by the engine
+   * once it's stopped, or once the analysis is done for the versions without start/stop lifecycle.
+   */
+  private static class CachedLauncher implements IsolatedLauncher {
+    private final IsolatedLauncher launcher;
+    private final Runnable accessRecording;
+    private final Runnable classesRecording;
+
+    CachedLauncher(IsolatedLauncher launcher, Runnable accessRecording, @Nullable Runnable classesRecording) {
+      this.launcher = launcher;
+      this.accessRecording = accessRecording;
+      this.classesRecording = classesRecording;
+    }
+
+    private void recordClasses() {
+      if (classesRecording != null) {
+        classesRecording.run();
+      }
+    }
+
+    @Override
+    public void start(Properties properties, LogOutput logOutput) {
+      launcher.start(properties, logOutput);
+    }
+
+    @Override
+    public void stop() {
+      launcher.stop();
+      recordClasses();
+    }
+
+    @Override
+    public void execute(Properties properties) {
+      launcher.execute(properties);
+    }
+
+    @Override
+    public void executeOldVersion(Properties properties, List<Object> extensions) {
+      launcher.executeOldVersion(properties, extensions);
+      recordClasses();
+    }
+
+    @Override
+    public String getVersion() {
+      return launcher.getVersion();
+    }
+  }
+
+  /**
+   * Classes listed by {@link InternalProperties#SCANNER_PRELOAD_CLASSES}. They are preloaded together with the
+   * classes recorded by a previous run, not instead of them.
+   */
+  private static List<String> preloadedClasses(Properties props) {
+    String value = props.getProperty(InternalProperties.SCANNER_PRELOAD_CLASSES, "");
+    List<String> classNames = new ArrayList<>();
+    for (String className : value.split(",")) {
+      String trimmed = className.trim();
+      if (!trimmed.isEmpty()) {
+        classNames.add(trimmed);
+      }
+    }
+    return classNames;
+  }
 }
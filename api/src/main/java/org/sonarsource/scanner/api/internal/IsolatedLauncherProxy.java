@@ -19,22 +19,39 @@
  */
 package org.sonarsource.scanner.api.internal;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 public class IsolatedLauncherProxy implements InvocationHandler {
+  private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object[].class);
+
   private final Object proxied;
   private final ClassLoader cl;
   private final Logger logger;
+  private final Map<Method, MethodHandle> handles = new ConcurrentHashMap<>();
 
-  private IsolatedLauncherProxy(ClassLoader cl, Object proxied, Logger logger) {
+  private IsolatedLauncherProxy(ClassLoader cl, Object proxied, Class<?> interfaceClass, Logger logger) {
     this.cl = cl;
     this.proxied = proxied;
     this.logger = logger;
+    // resolve once the handles of the interface, so that calls don't go through reflection
+    for (Method method : interfaceClass.getMethods()) {
+      if (!Modifier.isStatic(method.getModifiers())) {
+        handles.put(method, handleFor(method));
+      }
+    }
   }
 
   public static <T> T create(ClassLoader cl, Class<T> interfaceClass, String proxiedClassName, Logger logger) throws ReflectiveOperationException {
@@ -47,21 +64,56 @@ public class IsolatedLauncherProxy implements InvocationHandler {
 
   public static <T> T create(ClassLoader cl, Object proxied, Class<T> interfaceClass, Logger logger) {
     Class<?>[] c = {interfaceClass};
-    return (T) Proxy.newProxyInstance(cl, c, new IsolatedLauncherProxy(cl, proxied, logger));
+    return (T) Proxy.newProxyInstance(cl, c, new IsolatedLauncherProxy(cl, proxied, interfaceClass, logger));
+  }
+
+  /**
+   * Closes the classloader of a proxy created by this class, if it can be closed. Other objects are ignored.
+   */
+  public static void closeClassLoader(Object proxy) throws IOException {
+    if (Proxy.isProxyClass(proxy.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+      if (handler instanceof IsolatedLauncherProxy && ((IsolatedLauncherProxy) handler).cl instanceof Closeable) {
+        ((Closeable) ((IsolatedLauncherProxy) handler).cl).close();
+      }
+    }
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    ClassLoader initialContextClassLoader = Thread.currentThread().getContextClassLoader();
+    MethodHandle handle = handles.get(method);
+    if (handle == null) {
+      // methods of java.lang.Object (equals, hashCode, toString)
+      handle = handles.computeIfAbsent(method, this::handleFor);
+    }
+    Thread currentThread = Thread.currentThread();
+    ClassLoader initialContextClassLoader = currentThread.getContextClassLoader();
 
     try {
-      Thread.currentThread().setContextClassLoader(cl);
-      logger.debug("Execution " + method.getName());
-      return method.invoke(proxied, args);
+      if (initialContextClassLoader != cl) {
+        currentThread.setContextClassLoader(cl);
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Execution " + method.getName());
+      }
+      return handle.invokeExact(args);
     } catch (UndeclaredThrowableException | InvocationTargetException e) {
       throw unwrapException(e);
     } finally {
-      Thread.currentThread().setContextClassLoader(initialContextClassLoader);
+      if (initialContextClassLoader != cl) {
+        currentThread.setContextClassLoader(initialContextClassLoader);
+      }
+    }
+  }
+
+  private MethodHandle handleFor(Method method) {
+    try {
+      return MethodHandles.lookup().unreflect(method)
+        .bindTo(proxied)
+        .asSpreader(Object[].class, method.getParameterCount())
+        .asType(GENERIC_TYPE);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Fail to resolve method " + method, e);
     }
   }
 
@@ -22,12 +22,14 @@ package org.sonarsource.scanner.api.internal;
 import java.io.File;
 import java.util.List;
 import java.util.Properties;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 class JarDownloader {
   private final ServerConnection serverConnection;
   private final Logger logger;
   private final Properties props;
+  private Jars jars;
 
   JarDownloader(ServerConnection conn, Logger logger, Properties props) {
     this.serverConnection = conn;
@@ -36,6 +38,17 @@ class JarDownloader {
   }
 
   List<File> download() {
-    return new Jars(serverConnection, new JarExtractor(), logger, props).download();
+    return jars().download();
+  }
+
+  FileCache fileCache() {
+    return jars().getFileCache();
+  }
+
+  private Jars jars() {
+    if (jars == null) {
+      jars = new Jars(serverConnection, new JarExtractor(), logger, props);
+    }
+    return jars;
   }
 }
@@ -19,23 +19,38 @@
  */
 package org.sonarsource.scanner.api.internal;
 
+import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
 
 public class JarExtractor {
 
-  public Path extractToTemp(String filenameWithoutSuffix) {
+  // embedded jars don't change during the life of the JVM
+  private static final ConcurrentMap<String, String> HASHES = new ConcurrentHashMap<>();
+
+  /**
+   * Extract an embedded jar to the cache, where it's stored according to the hash of its content. It's
+   * extracted only once for a given version, then reused by all the processes.
+   */
+  public File extractToCache(String filenameWithoutSuffix, FileCache fileCache) {
     String filename = filenameWithoutSuffix + ".jar";
     URL url = getClass().getResource("/" + filename);
     try {
-      Path copy = Files.createTempFile(filenameWithoutSuffix, ".jar");
-      try (InputStream in = url.openStream()) {
-        Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+      String hash = HASHES.get(filename);
+      if (hash == null) {
+        hash = fileCache.hash(url.openStream());
+        HASHES.put(filename, hash);
       }
-      return copy;
+      return fileCache.get(filename, hash, (name, toFile) -> {
+        try (InputStream in = url.openStream()) {
+          Files.copy(in, toFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      });
     } catch (Exception e) {
       throw new IllegalStateException("Fail to extract " + filename, e);
     }
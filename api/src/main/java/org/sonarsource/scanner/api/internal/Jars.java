@@ -24,6 +24,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
 import org.sonarsource.scanner.api.internal.cache.FileCache;
 import org.sonarsource.scanner.api.internal.cache.FileCacheBuilder;
 import org.sonarsource.scanner.api.internal.cache.Logger;
@@ -32,76 +40,272 @@ import static java.lang.String.format;
 
 class Jars {
 
+  static final int DEFAULT_DOWNLOAD_THREADS = 4;
+  static final String BOOTSTRAP_INDEX_PATH = "/batch/index";
+  private static final String BOOTSTRAP_INDEX_KEY_PREFIX = "bootstrap-index|";
+  private static final String INDEX = "index";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String LAST_CLASSPATH_KEY_PREFIX = "last-classpath|";
+  private static final String CLASSPATH = "classpath";
+
+  // the cache is cleaned in background, outside of the bootstrap of the engine
+  private static final ExecutorService CACHE_EVICTION = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "sonar-scanner-cache-eviction");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    return t;
+  });
+
   private final FileCache fileCache;
   private final ServerConnection connection;
   private final JarExtractor jarExtractor;
   private final Logger logger;
+  private final int downloadThreads;
+  private final boolean offlineBootstrap;
+  private final long cacheMaxSize;
+  private final long cacheMaxAge;
 
   Jars(ServerConnection conn, JarExtractor jarExtractor, Logger logger, Properties props) {
-    this.logger = logger;
-    this.fileCache = new FileCacheBuilder(logger)
+    this(new FileCacheBuilder(logger)
       .setUserHome(props.getProperty("sonar.userHome"))
-      .build();
-    this.connection = conn;
-    this.jarExtractor = jarExtractor;
+      .setVerifyIntegrity(Boolean.parseBoolean(props.getProperty(InternalProperties.SCANNER_CACHE_VERIFY)))
+      .build(), conn, jarExtractor, logger, props);
   }
 
   /**
    * For unit tests
    */
   Jars(FileCache fileCache, ServerConnection conn, JarExtractor jarExtractor, Logger logger) {
+    this(fileCache, conn, jarExtractor, logger, new Properties());
+  }
+
+  /**
+   * For unit tests
+   */
+  Jars(FileCache fileCache, ServerConnection conn, JarExtractor jarExtractor, Logger logger, Properties props) {
     this.logger = logger;
     this.fileCache = fileCache;
     this.connection = conn;
     this.jarExtractor = jarExtractor;
+    this.downloadThreads = (int) Math.max(1L, PropertyValues.longValue(props, InternalProperties.SCANNER_DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS));
+    this.offlineBootstrap = Boolean.parseBoolean(props.getProperty(InternalProperties.SCANNER_OFFLINE_BOOTSTRAP));
+    this.cacheMaxSize = PropertyValues.longValue(props, InternalProperties.SCANNER_CACHE_MAX_SIZE_MB, -1L) * 1024 * 1024;
+    this.cacheMaxAge = TimeUnit.DAYS.toMillis(PropertyValues.longValue(props, InternalProperties.SCANNER_CACHE_MAX_AGE_DAYS, -1L));
   }
 
-  /**
-   * For unit tests
-   */
   FileCache getFileCache() {
     return fileCache;
   }
 
   List<File> download() {
     List<File> files = new ArrayList<>();
-    logger.debug("Extract sonar-scanner-api-batch in temp...");
-    files.add(jarExtractor.extractToTemp("sonar-scanner-api-batch").toFile());
+    logger.debug("Extract sonar-scanner-api-batch in user cache...");
+    File batchJar = jarExtractor.extractToCache("sonar-scanner-api-batch", fileCache);
+    PackageIndex.writeSidecar(batchJar, logger);
+    files.add(batchJar);
     files.addAll(getScannerEngineFiles());
+    RetryPolicy retryPolicy = connection.retryPolicy();
+    if (retryPolicy.retries() > 0) {
+      logger.info(format("%d HTTP requests to server were retried, %d ms spent waiting", retryPolicy.retries(), retryPolicy.waitedMillis()));
+    }
+    if (cacheMaxSize >= 0 || cacheMaxAge >= 0) {
+      CACHE_EVICTION.submit(this::evictCache);
+    }
     return files;
   }
 
+  private void evictCache() {
+    long reclaimed = fileCache.evict(cacheMaxSize, cacheMaxAge);
+    if (reclaimed > 0) {
+      logger.info(format("User cache cleaned, %d MB reclaimed", reclaimed / (1024 * 1024)));
+    }
+  }
+
   private List<File> getScannerEngineFiles() {
-    List<File> files = new ArrayList<>();
-    String bootstrapIndex = getBootstrapIndex();
+    String bootstrapIndex;
+    try {
+      bootstrapIndex = getBootstrapIndex();
+    } catch (IllegalStateException e) {
+      List<File> lastClasspath = offlineBootstrap ? getLastClasspath() : null;
+      if (lastClasspath == null) {
+        throw e;
+      }
+      logger.warn("Fail to get bootstrap index from server, use the last known classpath of the scanner engine: " + e.getCause());
+      return lastClasspath;
+    }
+    List<File> files = getScannerEngineFiles(bootstrapIndex);
+    if (offlineBootstrap) {
+      storeLastClasspath(bootstrapIndex, files);
+    }
+    return files;
+  }
+
+  private List<File> getScannerEngineFiles(String bootstrapIndex) {
     try {
       String[] lines = bootstrapIndex.split("[\r\n]+");
-      ScannerFileDownloader scannerFileDownloader = new ScannerFileDownloader(connection);
+      List<String[]> libsAndHashes = new ArrayList<>(lines.length);
       for (String line : lines) {
         line = line.trim();
         String[] libAndHash = line.split("\\|");
-        String filename = libAndHash[0];
-        String hash = libAndHash[1];
-        files.add(fileCache.get(filename, hash, scannerFileDownloader));
+        if (libAndHash.length < 2) {
+          throw new IllegalStateException("Invalid line in bootstrap index: " + line);
+        }
+        libsAndHashes.add(libAndHash);
       }
+      ScannerFileDownloader scannerFileDownloader = new ScannerFileDownloader(connection);
+      if (downloadThreads <= 1 || libsAndHashes.size() <= 1) {
+        return getSequentially(libsAndHashes, scannerFileDownloader);
+      }
+      return getInParallel(libsAndHashes, scannerFileDownloader);
     } catch (Exception e) {
       throw new IllegalStateException("Fail to bootstrap from server. Bootstrap index was:\n" + bootstrapIndex, e);
     }
+  }
+
+  /**
+   * Classpath of the last successful bootstrap from the same server, or null if it is unknown or if some of
+   * its files were removed from the cache.
+   */
+  @CheckForNull
+  private List<File> getLastClasspath() {
+    Properties record = fileCache.getMetadata(LAST_CLASSPATH_KEY_PREFIX + connection.baseUrl());
+    String classpath = record != null ? record.getProperty(CLASSPATH) : null;
+    if (classpath == null || classpath.isEmpty()) {
+      return null;
+    }
+    List<File> files = new ArrayList<>();
+    for (String path : classpath.split(File.pathSeparator)) {
+      File file = new File(path);
+      if (!file.isFile()) {
+        logger.debug("File of the last known classpath is missing in cache: " + path);
+        return null;
+      }
+      files.add(file);
+    }
+    return files;
+  }
+
+  private void storeLastClasspath(String bootstrapIndex, List<File> files) {
+    StringBuilder classpath = new StringBuilder();
+    for (File file : files) {
+      if (classpath.length() > 0) {
+        classpath.append(File.pathSeparator);
+      }
+      classpath.append(file.getAbsolutePath());
+    }
+    String key = LAST_CLASSPATH_KEY_PREFIX + connection.baseUrl();
+    Properties previous = fileCache.getMetadata(key);
+    if (previous != null && classpath.toString().equals(previous.getProperty(CLASSPATH))) {
+      return;
+    }
+    Properties record = new Properties();
+    record.setProperty(INDEX, bootstrapIndex);
+    record.setProperty(CLASSPATH, classpath.toString());
+    fileCache.putMetadata(key, record);
+  }
+
+  private List<File> getSequentially(List<String[]> libsAndHashes, ScannerFileDownloader downloader) {
+    List<File> files = new ArrayList<>(libsAndHashes.size());
+    for (String[] libAndHash : libsAndHashes) {
+      files.add(getAndIndex(libAndHash, downloader));
+    }
     return files;
   }
 
+  /**
+   * Missing files are downloaded concurrently, each one being validated against its own hash by {@link FileCache}.
+   * Files are returned in the order of the bootstrap index, as it defines the classpath order.
+   */
+  private List<File> getInParallel(List<String[]> libsAndHashes, ScannerFileDownloader downloader) throws Exception {
+    int threads = Math.min(downloadThreads, libsAndHashes.size());
+    logger.debug(() -> format("Get %d files with %d threads...", libsAndHashes.size(), threads));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new DownloadThreadFactory());
+    try {
+      List<Future<File>> futures = new ArrayList<>(libsAndHashes.size());
+      for (String[] libAndHash : libsAndHashes) {
+        futures.add(executor.submit(() -> getAndIndex(libAndHash, downloader)));
+      }
+      List<File> files = new ArrayList<>(futures.size());
+      for (Future<File> future : futures) {
+        files.add(getUnwrapped(future));
+      }
+      return files;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private File getAndIndex(String[] libAndHash, ScannerFileDownloader downloader) {
+    File file = fileCache.get(libAndHash[0], libAndHash[1], downloader);
+    PackageIndex.writeSidecar(file, logger);
+    return file;
+  }
+
+  private static File getUnwrapped(Future<File> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The index is stored in the user cache with its HTTP validators, so that it's downloaded again only
+   * when it was changed on server.
+   */
   private String getBootstrapIndex() {
     try {
       logger.debug("Get bootstrap index...");
-      String libs = connection.downloadString("/batch/index");
+      String metadataKey = BOOTSTRAP_INDEX_KEY_PREFIX + connection.baseUrl();
+      Properties cached = fileCache.getMetadata(metadataKey);
+      String cachedIndex = cached != null ? cached.getProperty(INDEX) : null;
+      String etag = cachedIndex != null ? cached.getProperty(ETAG) : null;
+      String lastModified = cachedIndex != null ? cached.getProperty(LAST_MODIFIED) : null;
+
+      ServerConnection.CacheableContent response = connection.downloadStringIfModified(BOOTSTRAP_INDEX_PATH, etag, lastModified);
+      if (response == null) {
+        logger.debug("Bootstrap index not modified, use cached copy");
+        return cachedIndex;
+      }
+      if (response.etag() != null || response.lastModified() != null) {
+        fileCache.putMetadata(metadataKey, toMetadata(response));
+      }
       logger.debug("Get bootstrap completed");
-      return libs;
+      return response.content();
     } catch (Exception e) {
       throw new IllegalStateException("Fail to get bootstrap index from server", e);
     }
   }
 
-  static class ScannerFileDownloader implements FileCache.Downloader {
+  private static Properties toMetadata(ServerConnection.CacheableContent response) {
+    Properties props = new Properties();
+    props.setProperty(INDEX, response.content());
+    if (response.etag() != null) {
+      props.setProperty(ETAG, response.etag());
+    }
+    if (response.lastModified() != null) {
+      props.setProperty(LAST_MODIFIED, response.lastModified());
+    }
+    return props;
+  }
+
+  private static class DownloadThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "sonar-scanner-download-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  static class ScannerFileDownloader implements FileCache.ResumableDownloader {
     private final ServerConnection connection;
 
     ScannerFileDownloader(ServerConnection conn) {
@@ -112,5 +316,10 @@ class Jars {
     public void download(String filename, File toFile) throws IOException {
       connection.downloadFile(format("/batch/file?name=%s", filename), toFile.toPath());
     }
+
+    @Override
+    public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+      connection.downloadFile(format("/batch/file?name=%s", filename), partialDownload);
+    }
   }
 }
@@ -0,0 +1,289 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
+import org.sonarsource.scanner.api.internal.batch.LogOutput;
+
+/**
+ * Process-wide pool of started launchers, so that applications running many analyses in the same JVM
+ * bootstrap the scanner engine only once. Launchers are shared only between scanners having the same
+ * global properties (including server URL) and the same classloader rules.
+ */
+public class LauncherPool {
+
+  static final int DEFAULT_MAX_SIZE = 4;
+  static final long DEFAULT_MAX_IDLE_MILLISECONDS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final LauncherPool INSTANCE = new LauncherPool();
+
+  private final Map<Key, Deque<PooledLauncher>> idleLaunchers = new HashMap<>();
+  private int idleCount = 0;
+  private int maxSize = DEFAULT_MAX_SIZE;
+  private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLISECONDS;
+  private ScheduledExecutorService evictionExecutor;
+
+  /**
+   * For unit tests
+   */
+  LauncherPool() {
+  }
+
+  public static LauncherPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Maximum number of idle launchers kept in the pool
+   */
+  public synchronized LauncherPool setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * Idle launchers are stopped after this delay
+   */
+  public synchronized LauncherPool setMaxIdleTime(long duration, TimeUnit unit) {
+    this.maxIdleMillis = unit.toMillis(duration);
+    return this;
+  }
+
+  public static Key key(Properties globalProperties, Set<String> classloaderMask, Set<String> classloaderUnmask) {
+    return new Key(globalProperties, classloaderMask, classloaderUnmask);
+  }
+
+  /**
+   * Returns an idle launcher started with the same key, or null if there is none.
+   */
+  @CheckForNull
+  public PooledLauncher lease(Key key) {
+    List<PooledLauncher> expired;
+    PooledLauncher leased = null;
+    synchronized (this) {
+      expired = removeExpired(System.currentTimeMillis());
+      Deque<PooledLauncher> launchers = idleLaunchers.get(key);
+      if (launchers != null && !launchers.isEmpty()) {
+        leased = launchers.pollLast();
+        idleCount--;
+      }
+    }
+    stopAll(expired);
+    return leased;
+  }
+
+  /**
+   * Give back a launcher to the pool, when the scanner using it is stopped
+   */
+  public void release(PooledLauncher launcher) {
+    launcher.logOutput.setTarget(null);
+    launcher.releasedAt = System.currentTimeMillis();
+    List<PooledLauncher> evicted;
+    synchronized (this) {
+      idleLaunchers.computeIfAbsent(launcher.key, k -> new ArrayDeque<>()).addLast(launcher);
+      idleCount++;
+      evicted = removeExpired(launcher.releasedAt);
+      evicted.addAll(removeOldest(idleCount - maxSize));
+      scheduleEviction();
+    }
+    stopAll(evicted);
+  }
+
+  /**
+   * Stop all idle launchers
+   */
+  public void clear() {
+    List<PooledLauncher> evicted;
+    synchronized (this) {
+      evicted = removeOldest(idleCount);
+    }
+    stopAll(evicted);
+  }
+
+  synchronized int idleCount() {
+    return idleCount;
+  }
+
+  private List<PooledLauncher> removeExpired(long now) {
+    List<PooledLauncher> expired = new ArrayList<>();
+    Iterator<Deque<PooledLauncher>> it = idleLaunchers.values().iterator();
+    while (it.hasNext()) {
+      Deque<PooledLauncher> launchers = it.next();
+      while (!launchers.isEmpty() && now - launchers.peekFirst().releasedAt >= maxIdleMillis) {
+        expired.add(launchers.pollFirst());
+        idleCount--;
+      }
+      if (launchers.isEmpty()) {
+        it.remove();
+      }
+    }
+    return expired;
+  }
+
+  private List<PooledLauncher> removeOldest(int count) {
+    List<PooledLauncher> removed = new ArrayList<>();
+    while (removed.size() < count) {
+      Deque<PooledLauncher> oldest = null;
+      for (Deque<PooledLauncher> launchers : idleLaunchers.values()) {
+        if (oldest == null || launchers.peekFirst().releasedAt < oldest.peekFirst().releasedAt) {
+          oldest = launchers;
+        }
+      }
+      if (oldest == null) {
+        break;
+      }
+      removed.add(oldest.pollFirst());
+      idleCount--;
+      idleLaunchers.values().removeIf(Deque::isEmpty);
+    }
+    return removed;
+  }
+
+  private void scheduleEviction() {
+    if (evictionExecutor == null) {
+      evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sonar-scanner-launcher-pool");
+        t.setDaemon(true);
+        return t;
+      });
+      evictionExecutor.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+  }
+
+  private void evictExpired() {
+    List<PooledLauncher> expired;
+    synchronized (this) {
+      expired = removeExpired(System.currentTimeMillis());
+    }
+    stopAll(expired);
+  }
+
+  private static void stopAll(List<PooledLauncher> launchers) {
+    for (PooledLauncher launcher : launchers) {
+      try {
+        launcher.launcher.stop();
+      } catch (RuntimeException e) {
+        // the launcher is dropped anyway
+      }
+    }
+  }
+
+  /**
+   * A started launcher. Its logs are sent to the {@link LogOutput} of the scanner currently using it.
+   */
+  public static class PooledLauncher {
+    private final Key key;
+    private final IsolatedLauncher launcher;
+    private final SwitchableLogOutput logOutput;
+    private long releasedAt;
+
+    private PooledLauncher(Key key, IsolatedLauncher launcher, SwitchableLogOutput logOutput) {
+      this.key = key;
+      this.launcher = launcher;
+      this.logOutput = logOutput;
+    }
+
+    /**
+     * Start a new launcher, which can later be given back to the pool with {@link LauncherPool#release(PooledLauncher)}
+     *
+     * @param target receives the logs of the engine, including the ones of its startup
+     */
+    public static PooledLauncher start(Key key, IsolatedLauncher launcher, Properties globalProperties, @Nullable LogOutput target) {
+      SwitchableLogOutput logOutput = new SwitchableLogOutput();
+      logOutput.setTarget(target);
+      launcher.start(globalProperties, logOutput);
+      return new PooledLauncher(key, launcher, logOutput);
+    }
+
+    public IsolatedLauncher launcher() {
+      return launcher;
+    }
+
+    public void setLogOutput(@Nullable LogOutput target) {
+      logOutput.setTarget(target);
+    }
+  }
+
+  private static class SwitchableLogOutput implements LogOutput {
+    private volatile LogOutput target;
+
+    void setTarget(@Nullable LogOutput target) {
+      this.target = target;
+    }
+
+    @Override
+    public void log(String formattedMessage, Level level) {
+      LogOutput current = target;
+      if (current != null) {
+        current.log(formattedMessage, level);
+      }
+    }
+  }
+
+  public static final class Key {
+    private final Map<String, String> globalProperties = new TreeMap<>();
+    private final Set<String> classloaderMask;
+    private final Set<String> classloaderUnmask;
+
+    private Key(Properties globalProperties, Set<String> classloaderMask, Set<String> classloaderUnmask) {
+      for (String name : globalProperties.stringPropertyNames()) {
+        this.globalProperties.put(name, globalProperties.getProperty(name));
+      }
+      this.classloaderMask = new TreeSet<>(classloaderMask);
+      this.classloaderUnmask = new TreeSet<>(classloaderUnmask);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key other = (Key) o;
+      return globalProperties.equals(other.globalProperties) && classloaderMask.equals(other.classloaderMask)
+        && classloaderUnmask.equals(other.classloaderUnmask);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = globalProperties.hashCode();
+      result = 31 * result + classloaderMask.hashCode();
+      return 31 * result + classloaderUnmask.hashCode();
+    }
+  }
+}
@@ -29,7 +29,11 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -37,6 +41,7 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
+import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
@@ -48,14 +53,41 @@ public class OkHttpClientFactory {
 
   static final int CONNECT_TIMEOUT_MILLISECONDS = 5_000;
   static final int READ_TIMEOUT_MILLISECONDS = 60_000;
+  // twice the default number of parallel downloads of engine files
+  static final int MAX_IDLE_CONNECTIONS = 8;
+  static final long KEEP_ALIVE_MINUTES = 5;
   static final String NONE = "NONE";
   static final String P11KEYSTORE = "PKCS11";
 
+  /**
+   * System properties read when building a client. Clients are shared as long as these properties don't change.
+   */
+  static final List<String> CONFIGURATION_PROPERTIES = asList(
+    "javax.net.ssl.keyStore", "javax.net.ssl.keyStoreType", "javax.net.ssl.keyStoreProvider", "javax.net.ssl.keyStorePassword",
+    "javax.net.ssl.trustStore", "javax.net.ssl.trustStoreType", "javax.net.ssl.trustStoreProvider", "javax.net.ssl.trustStorePassword",
+    "http.proxyHost", "http.proxyUser");
+
+  private static final ConcurrentMap<List<String>, OkHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
   private OkHttpClientFactory() {
     // only statics
   }
 
+  /**
+   * Returns a client shared by all connections of the JVM having the same TLS and proxy configuration, so that
+   * key stores are loaded only once and that connections and TLS sessions are reused between analyses.
+   */
   static OkHttpClient create(Logger logger) {
+    return CLIENTS.computeIfAbsent(currentConfiguration(), k -> newClient(logger));
+  }
+
+  static List<String> currentConfiguration() {
+    return CONFIGURATION_PROPERTIES.stream()
+      .map(p -> System.getProperty(p, ""))
+      .collect(Collectors.toList());
+  }
+
+  static OkHttpClient newClient(Logger logger) {
     OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder();
 
     okHttpClientBuilder.connectTimeout(CONNECT_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
@@ -67,6 +99,8 @@ public class OkHttpClientFactory {
       .supportsTlsExtensions(true)
       .build();
     okHttpClientBuilder.connectionSpecs(asList(tls, ConnectionSpec.CLEARTEXT));
+    // keep enough idle connections for parallel downloads
+    okHttpClientBuilder.connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES));
     X509TrustManager systemDefaultTrustManager = systemDefaultTrustManager();
     okHttpClientBuilder.sslSocketFactory(systemDefaultSslSocketFactory(systemDefaultTrustManager, logger), systemDefaultTrustManager);
 
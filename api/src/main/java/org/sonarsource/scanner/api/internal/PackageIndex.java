@@ -0,0 +1,161 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.CheckForNull;
+import org.sonarsource.scanner.api.internal.cache.Logger;
+
+/**
+ * Index of the jars containing each package of a classpath, so that classes and resources are looked up only
+ * in the jars that can contain them. The packages of a jar are stored in a file next to it, named
+ * {@code <jar>.packages}, so that jars of the user cache are read only once.
+ */
+class PackageIndex {
+
+  static final String SIDECAR_SUFFIX = ".packages";
+
+  private final Map<String, List<Integer>> jarsByPackage;
+
+  private PackageIndex(Map<String, List<Integer>> jarsByPackage) {
+    this.jarsByPackage = jarsByPackage;
+  }
+
+  /**
+   * Returns null if the index can't be used for this classpath, for instance when a jar can't be read or when
+   * it references other jars through the Class-Path attribute of its manifest.
+   */
+  @CheckForNull
+  static PackageIndex build(List<File> jars) {
+    Map<String, List<Integer>> jarsByPackage = new HashMap<>();
+    for (int i = 0; i < jars.size(); i++) {
+      Set<String> packages = packagesOf(jars.get(i));
+      if (packages == null) {
+        return null;
+      }
+      for (String packageName : packages) {
+        jarsByPackage.computeIfAbsent(packageName, k -> new ArrayList<>(1)).add(i);
+      }
+    }
+    return new PackageIndex(jarsByPackage);
+  }
+
+  /**
+   * Positions in the classpath of the jars containing the given resource, in classpath order. Empty if
+   * no jar contains its package.
+   */
+  List<Integer> jarsOf(String resourceName) {
+    List<Integer> jars = jarsByPackage.get(packageOf(resourceName));
+    return jars != null ? jars : Collections.<Integer>emptyList();
+  }
+
+  /**
+   * Store the packages of a jar next to it, if not already done.
+   */
+  static void writeSidecar(File jar, Logger logger) {
+    File sidecar = sidecarOf(jar);
+    if (!jar.isFile() || isUpToDate(sidecar, jar)) {
+      return;
+    }
+    try {
+      Set<String> packages = scan(jar);
+      if (packages == null) {
+        return;
+      }
+      Path temp = Files.createTempFile(jar.getParentFile().toPath(), jar.getName(), ".tmp");
+      Files.write(temp, packages, StandardCharsets.UTF_8);
+      Files.move(temp, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.debug("Unable to index packages of " + jar + ": " + e.getMessage());
+    }
+  }
+
+  @CheckForNull
+  private static Set<String> packagesOf(File jar) {
+    File sidecar = sidecarOf(jar);
+    try {
+      if (isUpToDate(sidecar, jar)) {
+        return new LinkedHashSet<>(Files.readAllLines(sidecar.toPath(), StandardCharsets.UTF_8));
+      }
+      return scan(jar);
+    } catch (IOException e) {
+      // the classloader will look for classes in all jars
+      return null;
+    }
+  }
+
+  /**
+   * Returns null if the jar has a Class-Path attribute in its manifest
+   */
+  @CheckForNull
+  private static Set<String> scan(File jar) throws IOException {
+    Set<String> packages = new LinkedHashSet<>();
+    try (JarFile jarFile = new JarFile(jar, false)) {
+      Manifest manifest = jarFile.getManifest();
+      if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+        return null;
+      }
+      Enumeration<? extends ZipEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory()) {
+          // directories can be loaded as resources, for example "META-INF/"
+          packages.add(packageOf(name));
+          packages.add(packageOf(name.substring(0, name.length() - 1)));
+        } else {
+          packages.add(packageOf(name));
+        }
+      }
+    }
+    return packages;
+  }
+
+  private static boolean isUpToDate(File sidecar, File jar) {
+    return sidecar.isFile() && sidecar.lastModified() >= jar.lastModified();
+  }
+
+  private static File sidecarOf(File jar) {
+    return new File(jar.getParentFile(), jar.getName() + SIDECAR_SUFFIX);
+  }
+
+  static String packageOf(String resourceName) {
+    int lastSlash = resourceName.lastIndexOf('/');
+    return lastSlash < 0 ? "" : resourceName.substring(0, lastSlash);
+  }
+}
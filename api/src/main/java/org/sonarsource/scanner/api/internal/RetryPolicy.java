@@ -0,0 +1,158 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Retries of HTTP requests when the server is temporarily unavailable, for example while it restarts.
+ * Delays between attempts grow exponentially and are randomized ("full jitter"), so that scanners
+ * failing at the same time do not retry at the same time.
+ */
+class RetryPolicy {
+
+  static final int DEFAULT_MAX_ATTEMPTS = 3;
+  static final long DEFAULT_BASE_DELAY_MILLISECONDS = 500L;
+  static final long DEFAULT_MAX_DELAY_MILLISECONDS = 10_000L;
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_BAD_GATEWAY = 502;
+  private static final int HTTP_UNAVAILABLE = 503;
+  private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  private final int maxAttempts;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final Random random;
+  private final Sleeper sleeper;
+  private final AtomicInteger retries = new AtomicInteger();
+  private final AtomicLong waitedMillis = new AtomicLong();
+
+  RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, @Nullable Random random, Sleeper sleeper) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.random = random;
+    this.sleeper = sleeper;
+  }
+
+  static RetryPolicy create(Properties props) {
+    int maxAttempts = (int) Math.max(1L, PropertyValues.longValue(props, InternalProperties.SCANNER_HTTP_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS));
+    long baseDelay = Math.max(0L, PropertyValues.longValue(props, InternalProperties.SCANNER_HTTP_RETRY_BASE_DELAY_MS, DEFAULT_BASE_DELAY_MILLISECONDS));
+    long maxDelay = Math.max(baseDelay, PropertyValues.longValue(props, InternalProperties.SCANNER_HTTP_RETRY_MAX_DELAY_MS, DEFAULT_MAX_DELAY_MILLISECONDS));
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, null, Thread::sleep);
+  }
+
+  static RetryPolicy defaultPolicy() {
+    return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLISECONDS, DEFAULT_MAX_DELAY_MILLISECONDS, null, Thread::sleep);
+  }
+
+  int maxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param attempt number of attempts already done, starting from 1
+   */
+  boolean canRetry(int attempt) {
+    return attempt < maxAttempts;
+  }
+
+  static boolean isRetryable(int httpCode) {
+    return httpCode == HTTP_TOO_MANY_REQUESTS || httpCode == HTTP_BAD_GATEWAY || httpCode == HTTP_UNAVAILABLE || httpCode == HTTP_GATEWAY_TIMEOUT;
+  }
+
+  /**
+   * Delay before the next attempt. The value of the header Retry-After is used when present, but never
+   * exceeds the maximum delay.
+   *
+   * @param attempt number of attempts already done, starting from 1
+   * @param retryAfter value of the HTTP header Retry-After, if any
+   */
+  long delayMillis(int attempt, @Nullable String retryAfter) {
+    Long serverDelay = parseRetryAfter(retryAfter);
+    if (serverDelay != null) {
+      return Math.min(maxDelay, serverDelay);
+    }
+    long exponential = baseDelay << Math.min(attempt - 1, 30);
+    long bound = Math.min(maxDelay, exponential < 0 ? maxDelay : exponential);
+    Random r = random != null ? random : ThreadLocalRandom.current();
+    return bound <= 0 ? 0L : (long) (r.nextDouble() * (bound + 1));
+  }
+
+  void pause(long delayMillis) throws InterruptedIOException {
+    retries.incrementAndGet();
+    waitedMillis.addAndGet(delayMillis);
+    try {
+      sleeper.sleep(delayMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting before retrying HTTP request");
+    }
+  }
+
+  /**
+   * Number of retries done since creation
+   */
+  int retries() {
+    return retries.get();
+  }
+
+  /**
+   * Total time spent waiting before retries
+   */
+  long waitedMillis() {
+    return waitedMillis.get();
+  }
+
+  @CheckForNull
+  private static Long parseRetryAfter(@Nullable String retryAfter) {
+    if (retryAfter == null || retryAfter.trim().isEmpty()) {
+      return null;
+    }
+    String value = retryAfter.trim();
+    try {
+      return Math.max(0L, Long.parseLong(value) * 1000L);
+    } catch (NumberFormatException e) {
+      // not delay-seconds, try HTTP-date
+    }
+    try {
+      ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Math.max(0L, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
@@ -23,31 +23,47 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonarsource.scanner.api.Utils;
+import org.sonarsource.scanner.api.internal.cache.FileCache.PartialDownload;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static org.sonarsource.scanner.api.internal.InternalProperties.SCANNER_APP;
 import static org.sonarsource.scanner.api.internal.InternalProperties.SCANNER_APP_VERSION;
 
 class ServerConnection {
 
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
   private final String baseUrlWithoutTrailingSlash;
   private final String userAgent;
   private final OkHttpClient httpClient;
+  private final RetryPolicy retryPolicy;
 
   private final Logger logger;
 
   ServerConnection(String baseUrl, String userAgent, Logger logger) {
+    this(baseUrl, userAgent, RetryPolicy.defaultPolicy(), logger);
+  }
+
+  ServerConnection(String baseUrl, String userAgent, RetryPolicy retryPolicy, Logger logger) {
     this.logger = logger;
     this.baseUrlWithoutTrailingSlash = removeTrailingSlash(baseUrl);
     this.userAgent = userAgent;
+    this.retryPolicy = retryPolicy;
     this.httpClient = OkHttpClientFactory.create(logger);
   }
 
@@ -55,10 +71,18 @@ class ServerConnection {
     return url.replaceAll("(/)+$", "");
   }
 
+  String baseUrl() {
+    return baseUrlWithoutTrailingSlash;
+  }
+
   public static ServerConnection create(Properties props, Logger logger) {
     String serverUrl = props.getProperty("sonar.host.url");
     String userAgent = format("%s/%s", props.getProperty(SCANNER_APP), props.getProperty(SCANNER_APP_VERSION));
-    return new ServerConnection(serverUrl, userAgent, logger);
+    return new ServerConnection(serverUrl, userAgent, RetryPolicy.create(props), logger);
+  }
+
+  RetryPolicy retryPolicy() {
+    return retryPolicy;
   }
 
   /**
@@ -74,17 +98,124 @@ class ServerConnection {
       throw new IllegalArgumentException(format("URL path must start with slash: %s", urlPath));
     }
     String url = baseUrlWithoutTrailingSlash + urlPath;
-    logger.debug(format("Download %s to %s", url, toFile.toAbsolutePath().toString()));
+    logger.debug(() -> format("Download %s to %s", url, toFile.toAbsolutePath().toString()));
     ResponseBody responseBody = callUrl(url);
 
-    try (InputStream in = responseBody.byteStream()) {
-      Files.copy(in, toFile, StandardCopyOption.REPLACE_EXISTING);
+    try (OutputStream out = Files.newOutputStream(toFile)) {
+      transfer(url, responseBody, out);
     } catch (IOException | RuntimeException e) {
       Utils.deleteQuietly(toFile);
       throw e;
     }
   }
 
+  /**
+   * Resumable download. If a previous attempt was interrupted, only the remaining bytes are requested with the
+   * header Range. The header If-Range makes the server send the complete content if it changed in the meantime.
+   * Bytes downloaded before a failure are kept for the next attempt. Requests and interrupted transfers share
+   * the same attempts of the {@link RetryPolicy}.
+   *
+   * @param urlPath path starting with slash, for instance {@code "/batch/file?name=foo.jar"}
+   * @param partialDownload the bytes downloaded by the previous attempt
+   * @throws IOException           if connectivity problem or timeout (network) or IO error (when writing to file)
+   * @throws IllegalStateException if HTTP response code is different than 2xx
+   */
+  public void downloadFile(String urlPath, PartialDownload partialDownload) throws IOException {
+    if (!urlPath.startsWith("/")) {
+      throw new IllegalArgumentException(format("URL path must start with slash: %s", urlPath));
+    }
+    String url = baseUrlWithoutTrailingSlash + urlPath;
+    int attempt = 1;
+    while (true) {
+      long offset = partialDownload.length();
+      Response response;
+      try {
+        response = openResumable(url, offset, partialDownload.validator());
+      } catch (IOException e) {
+        if (!retryPolicy.canRetry(attempt) || Thread.currentThread().isInterrupted()) {
+          logger.error(format("SonarQube server [%s] can not be reached", baseUrlWithoutTrailingSlash));
+          throw e;
+        }
+        pauseBeforeRetry(url, attempt, null, e.getMessage());
+        attempt++;
+        continue;
+      }
+      if (RetryPolicy.isRetryable(response.code()) && retryPolicy.canRetry(attempt)) {
+        String retryAfter = response.header("Retry-After");
+        response.close();
+        pauseBeforeRetry(url, attempt, retryAfter, "status " + response.code());
+        attempt++;
+        continue;
+      }
+      checkSuccessful(response);
+      boolean resume = response.code() == HTTP_PARTIAL && offset > 0 && response.header("Content-Range", "").startsWith("bytes " + offset + "-");
+      try (ResponseBody body = response.body();
+        OutputStream out = partialDownload.open(resume, validatorOf(response))) {
+        transfer(url, body, out);
+        return;
+      } catch (IOException e) {
+        // bytes already received are kept, so the next attempt only requests the remaining ones
+        if (!retryPolicy.canRetry(attempt) || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        pauseBeforeRetry(url, attempt, null, e.getMessage());
+        attempt++;
+      }
+    }
+  }
+
+  /**
+   * Single attempt, retries are handled by the caller
+   */
+  private Response openResumable(String url, long offset, @Nullable String validator) throws IOException {
+    if (offset > 0 && validator != null) {
+      logger.debug(() -> format("Resume download of %s from byte %d", url, offset));
+      Response response = call(newRequest(url)
+        .header("Range", "bytes=" + offset + "-")
+        .header("If-Range", validator)
+        .build());
+      if (response.code() != HTTP_RANGE_NOT_SATISFIABLE) {
+        return response;
+      }
+      // the partial file is not consistent with the content on server
+      response.close();
+    } else {
+      logger.debug(() -> format("Download %s", url));
+    }
+    return call(newRequest(url).build());
+  }
+
+  /**
+   * Only strong validators can be used in If-Range
+   */
+  @CheckForNull
+  private static String validatorOf(Response response) {
+    String etag = response.header("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return response.header("Last-Modified");
+  }
+
+  /**
+   * Copies the response body with Okio, which writes its own buffered segments to the output instead of going
+   * through an additional copy buffer. The response body is closed but not the output stream.
+   *
+   * @return number of bytes written
+   */
+  private long transfer(String url, ResponseBody body, OutputStream out) throws IOException {
+    long start = System.nanoTime();
+    long bytes;
+    try (BufferedSource source = body.source()) {
+      Sink sink = Okio.sink(out);
+      bytes = source.readAll(sink);
+      sink.flush();
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    logger.debug(() -> format("Downloaded %s: %d KB in %d ms (%d KB/s)", url, bytes / 1024, millis, bytes * 1000 / 1024 / Math.max(1L, millis)));
+    return bytes;
+  }
+
   /**
    * @throws IOException           if connectivity problem or timeout (network) or IO error (when writing to file)
    * @throws IllegalStateException if HTTP response code is different than 2xx
@@ -94,30 +225,133 @@ class ServerConnection {
       throw new IllegalArgumentException(format("URL path must start with slash: %s", urlPath));
     }
     String url = baseUrlWithoutTrailingSlash + urlPath;
-    logger.debug(format("Download: %s", url));
+    logger.debug(() -> format("Download: %s", url));
     ResponseBody responseBody = callUrl(url);
     return responseBody.string();
   }
 
+  /**
+   * Conditional variant of {@link #downloadString(String)}. The validators of a previous response are sent
+   * in the headers If-None-Match and If-Modified-Since.
+   *
+   * @return the new content, or null if server answered that the content was not modified
+   * @throws IOException           if connectivity problem or timeout (network)
+   * @throws IllegalStateException if HTTP response code is different than 2xx or 304
+   */
+  @CheckForNull
+  public CacheableContent downloadStringIfModified(String urlPath, @Nullable String etag, @Nullable String lastModified) throws IOException {
+    if (!urlPath.startsWith("/")) {
+      throw new IllegalArgumentException(format("URL path must start with slash: %s", urlPath));
+    }
+    String url = baseUrlWithoutTrailingSlash + urlPath;
+    logger.debug(() -> format("Download: %s", url));
+    Request.Builder request = newRequest(url);
+    if (etag != null) {
+      request.header("If-None-Match", etag);
+    }
+    if (lastModified != null) {
+      request.header("If-Modified-Since", lastModified);
+    }
+    Response response = execute(request.build());
+    if (response.code() == HTTP_NOT_MODIFIED && (etag != null || lastModified != null)) {
+      response.close();
+      return null;
+    }
+    checkSuccessful(response);
+    return new CacheableContent(response.body().string(), response.header("ETag"), response.header("Last-Modified"));
+  }
+
   /**
    * @throws IOException           if connectivity error/timeout (network)
    * @throws IllegalStateException if HTTP code is different than 2xx
    */
   private ResponseBody callUrl(String url) throws IOException {
-    try {
-      Request request = new Request.Builder()
-        .url(url)
-        .addHeader("User-Agent", userAgent)
-        .get()
-        .build();
-      Response response = httpClient.newCall(request).execute();
-      if (!response.isSuccessful()) {
-        throw new IllegalStateException(format("Status returned by url [%s] is not valid: [%s]", response.request().url(), response.code()));
+    Response response = execute(newRequest(url).build());
+    checkSuccessful(response);
+    return response.body();
+  }
+
+  private Request.Builder newRequest(String url) {
+    return new Request.Builder()
+      .url(url)
+      .addHeader("User-Agent", userAgent)
+      .get();
+  }
+
+  /**
+   * Connectivity errors and responses 429, 502, 503 and 504 are retried according to the {@link RetryPolicy}
+   */
+  private Response execute(Request request) throws IOException {
+    int attempt = 1;
+    while (true) {
+      Response response;
+      try {
+        response = call(request);
+      } catch (IOException e) {
+        if (!retryPolicy.canRetry(attempt) || Thread.currentThread().isInterrupted()) {
+          logger.error(format("SonarQube server [%s] can not be reached", baseUrlWithoutTrailingSlash));
+          throw e;
+        }
+        pauseBeforeRetry(request.url().toString(), attempt, null, e.getMessage());
+        attempt++;
+        continue;
       }
-      return response.body();
-    } catch (Exception e) {
+      if (!RetryPolicy.isRetryable(response.code()) || !retryPolicy.canRetry(attempt)) {
+        return response;
+      }
+      String retryAfter = response.header("Retry-After");
+      response.close();
+      pauseBeforeRetry(request.url().toString(), attempt, retryAfter, "status " + response.code());
+      attempt++;
+    }
+  }
+
+  private Response call(Request request) throws IOException {
+    try {
+      return httpClient.newCall(request).execute();
+    } catch (RuntimeException e) {
       logger.error(format("SonarQube server [%s] can not be reached", baseUrlWithoutTrailingSlash));
       throw e;
     }
   }
+
+  private void pauseBeforeRetry(String url, int attempt, @Nullable String retryAfter, String reason) throws IOException {
+    long delay = retryPolicy.delayMillis(attempt, retryAfter);
+    logger.warn(format("Fail to request %s (%s), attempt %d/%d. Retry in %d ms", url, reason, attempt, retryPolicy.maxAttempts(), delay));
+    retryPolicy.pause(delay);
+  }
+
+  private void checkSuccessful(Response response) {
+    if (!response.isSuccessful()) {
+      response.close();
+      logger.error(format("SonarQube server [%s] can not be reached", baseUrlWithoutTrailingSlash));
+      throw new IllegalStateException(format("Status returned by url [%s] is not valid: [%s]", response.request().url(), response.code()));
+    }
+  }
+
+  static class CacheableContent {
+    private final String content;
+    private final String etag;
+    private final String lastModified;
+
+    CacheableContent(String content, @Nullable String etag, @Nullable String lastModified) {
+      this.content = content;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    String content() {
+      return content;
+    }
+
+    @CheckForNull
+    String etag() {
+      return etag;
+    }
+
+    @CheckForNull
+    String lastModified() {
+      return lastModified;
+    }
+  }
 }
@@ -22,19 +22,44 @@ package org.sonarsource.scanner.api.internal;
 import org.sonarsource.scanner.api.Utils;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
 
 /**
  * The file sonar-runner-batch.jar is locked by the classloader on Windows and can't be dropped at the end of the execution.
  * See {@link IsolatedLauncherFactory}
+ * <p>
+ * The temp dir of shared build machines can contain a huge number of files, so cleaning is done in background,
+ * at most once per hour for all the processes, and stops when its time budget is exhausted.
  */
 class TempCleaning {
   static final int ONE_DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000;
+  static final long CLEANING_INTERVAL_MILLISECONDS = 60 * 60 * 1000L;
+  static final long DEFAULT_TIME_BUDGET_MILLISECONDS = 2_000L;
+  static final String MARKER_FILENAME = "sonar-scanner-api-temp-cleaning.marker";
+
+  // files created by this API or by its previous versions
+  private static final String FILENAME_GLOB = "{sonar-runner-batch,sonar-scanner-api-batch}*";
+
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "sonar-scanner-temp-cleaning");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    return t;
+  });
 
   final Path tempDir;
 
+  private final PathMatcher filenameMatcher;
   private final Logger logger;
 
   TempCleaning(Logger logger) {
@@ -47,17 +72,65 @@ class TempCleaning {
   TempCleaning(Path tempDir, Logger logger) {
     this.logger = logger;
     this.tempDir = tempDir;
+    this.filenameMatcher = tempDir.getFileSystem().getPathMatcher("glob:" + FILENAME_GLOB);
   }
 
-  void clean() {
+  /**
+   * Clean in a low-priority background thread, unless the temp dir was cleaned during the last hour.
+   *
+   * @param timeBudgetMillis see {@link InternalProperties#SCANNER_TEMP_CLEANING_BUDGET_MS}
+   * @return the background task, or null if cleaning is not needed
+   */
+  @CheckForNull
+  Future<?> cleanInBackground(long timeBudgetMillis) {
+    if (!acquireInterval()) {
+      return null;
+    }
+    return EXECUTOR.submit(() -> clean(timeBudgetMillis));
+  }
+
+  /**
+   * The marker file records the date of the last cleaning, so that concurrent and successive
+   * processes don't list the temp dir again.
+   */
+  boolean acquireInterval() {
+    Path marker = tempDir.resolve(MARKER_FILENAME);
+    long now = System.currentTimeMillis();
+    try {
+      if (Files.exists(marker) && now - lastModifiedTime(marker) < CLEANING_INTERVAL_MILLISECONDS) {
+        return false;
+      }
+      if (!Files.exists(marker)) {
+        Files.createFile(marker);
+      }
+      Files.setLastModifiedTime(marker, FileTime.fromMillis(now));
+      return true;
+    } catch (IOException e) {
+      // another process created the marker, or temp dir is read-only
+      logger.debug("Skip temp cleaning: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * The budget is checked on each entry of the temp dir, not only on the matching ones, as listing a huge
+   * directory takes most of the time.
+   */
+  void clean(long timeBudgetMillis) {
     logger.debug("Start temp cleaning...");
     long cutoff = System.currentTimeMillis() - ONE_DAY_IN_MILLISECONDS;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
 
-    try {
-      Files.list(tempDir)
-        .filter(p -> p.getFileName().toString().startsWith("sonar-runner-batch"))
-        .filter(p -> lastModifiedTime(p) < cutoff)
-        .forEach(Utils::deleteQuietly);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDir)) {
+      for (Path p : files) {
+        if (System.nanoTime() - deadline > 0) {
+          logger.debug("Temp cleaning stopped, time budget is exhausted");
+          return;
+        }
+        if (filenameMatcher.matches(p.getFileName()) && lastModifiedTime(p) < cutoff) {
+          Utils.deleteQuietly(p);
+        }
+      }
       logger.debug("Temp cleaning done");
     } catch (IOException e) {
       logger.warn("Failed to clean files in " + tempDir.toString() + ": " + e.getMessage());
@@ -0,0 +1,162 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append-only log of the accesses to the entries of the cache, so that least recently used entries can be found
+ * without scanning the cache directory. Each line is "&lt;hash&gt; &lt;timestamp&gt;". Lines are short enough
+ * to be appended atomically by concurrent processes.
+ * <p>
+ * Accesses are recorded by all the processes, whether they evict the cache or not, as the entries they use must
+ * be kept by the others. The journal is compacted when it grows beyond a maximum size.
+ */
+class AccessJournal {
+
+  // less than the minimum age of evicted entries, so that entries used by a long-running process are kept
+  static final long REFRESH_INTERVAL_MILLISECONDS = 10 * 60 * 1000L;
+  // about 20,000 accesses
+  static final long DEFAULT_MAX_SIZE_BYTES = 1024 * 1024L;
+
+  private final File file;
+  private final File tmpDir;
+  private final long maxSize;
+  private final Logger logger;
+  // an entry is recorded again only after the refresh interval, more accesses during the same execution are not useful
+  private final ConcurrentMap<String, Long> recordedAt = new ConcurrentHashMap<>();
+
+  AccessJournal(File file, File tmpDir, Logger logger) {
+    this(file, tmpDir, DEFAULT_MAX_SIZE_BYTES, logger);
+  }
+
+  AccessJournal(File file, File tmpDir, long maxSize, Logger logger) {
+    this.file = file;
+    this.tmpDir = tmpDir;
+    this.maxSize = maxSize;
+    this.logger = logger;
+  }
+
+  void record(String hash) {
+    long now = System.currentTimeMillis();
+    Long previous = recordedAt.get(hash);
+    if (previous != null && now - previous < REFRESH_INTERVAL_MILLISECONDS) {
+      return;
+    }
+    recordedAt.put(hash, now);
+    String line = hash + " " + now + "\n";
+    try {
+      Files.write(file.toPath(), line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      logger.debug("Unable to record access to cache entry " + hash + ": " + e.getMessage());
+      return;
+    }
+    if (file.length() > maxSize) {
+      compact();
+    }
+  }
+
+  /**
+   * Keep the last access of the entries still in the cache. Skipped if eviction, which rewrites the journal too,
+   * is running.
+   */
+  private void compact() {
+    File cacheDir = file.getParentFile();
+    File lockFile = new File(cacheDir, CacheEviction.LOCK_FILENAME);
+    try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+      FileChannel channel = raf.getChannel();
+      FileLock lock = channel.tryLock()) {
+      if (lock != null) {
+        Map<String, Long> lastAccesses = read();
+        lastAccesses.keySet().removeIf(hash -> !new File(cacheDir, hash).isDirectory());
+        rewrite(lastAccesses);
+      }
+    } catch (IOException | OverlappingFileLockException e) {
+      logger.debug("Unable to compact cache access journal: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Last access time of each recorded entry
+   */
+  Map<String, Long> read() {
+    Map<String, Long> lastAccesses = new HashMap<>();
+    if (!file.isFile()) {
+      return lastAccesses;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        parse(line, lastAccesses);
+      }
+    } catch (IOException e) {
+      logger.debug("Unable to read cache access journal: " + e.getMessage());
+    }
+    return lastAccesses;
+  }
+
+  private static void parse(String line, Map<String, Long> lastAccesses) {
+    int separator = line.indexOf(' ');
+    if (separator <= 0) {
+      // ignore lines truncated by a crash
+      return;
+    }
+    try {
+      String hash = line.substring(0, separator);
+      long time = Long.parseLong(line.substring(separator + 1).trim());
+      lastAccesses.merge(hash, time, Math::max);
+    } catch (NumberFormatException e) {
+      // ignore lines truncated by a crash
+    }
+  }
+
+  /**
+   * Replace the journal by one line per entry. Accesses appended by other processes while rewriting
+   * can be lost, in which case the entries look older than they actually are.
+   */
+  void rewrite(Map<String, Long> lastAccesses) {
+    try {
+      File tempFile = File.createTempFile("journal", null, tmpDir);
+      try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Long> entry : lastAccesses.entrySet()) {
+          writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.debug("Unable to compact cache access journal: " + e.getMessage());
+    }
+  }
+}
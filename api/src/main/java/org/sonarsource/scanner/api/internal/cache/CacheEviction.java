@@ -0,0 +1,218 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Removes the least recently used entries of the cache when it exceeds a maximum size, and the entries
+ * that were not used for a given time. Recently used entries are never removed as they may be in the classpath of
+ * a running process.
+ */
+class CacheEviction {
+
+  static final long MIN_AGE_MILLISECONDS = 60 * 60 * 1000L;
+  static final String LOCK_FILENAME = "_eviction.lock";
+
+  private final File dir;
+  private final File tmpDir;
+  private final AccessJournal journal;
+  private final File locksDir;
+  private final Logger logger;
+
+  CacheEviction(File dir, File tmpDir, AccessJournal journal, File locksDir, Logger logger) {
+    this.dir = dir;
+    this.tmpDir = tmpDir;
+    this.journal = journal;
+    this.locksDir = locksDir;
+    this.logger = logger;
+  }
+
+  /**
+   * @param maxSize maximum size in bytes of the cache, or a negative value if unlimited
+   * @param maxAge maximum duration in milliseconds since last access, or a negative value if unlimited
+   * @return number of bytes reclaimed
+   */
+  long evict(long maxSize, long maxAge) {
+    File lockFile = new File(dir, LOCK_FILENAME);
+    try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+      FileChannel channel = raf.getChannel();
+      FileLock lock = channel.tryLock()) {
+      if (lock == null) {
+        logger.debug("Cache eviction is already running in another process");
+        return 0L;
+      }
+      return evictLocked(maxSize, maxAge);
+    } catch (IOException | OverlappingFileLockException e) {
+      logger.warn("Fail to clean user cache: " + e.getMessage());
+      return 0L;
+    }
+  }
+
+  private long evictLocked(long maxSize, long maxAge) throws IOException {
+    long now = System.currentTimeMillis();
+    Map<String, Long> lastAccesses = journal.read();
+    List<Entry> entries = listEntries(lastAccesses);
+    entries.sort(Comparator.comparingLong((Entry e) -> e.lastAccess));
+
+    long totalSize = 0L;
+    for (Entry entry : entries) {
+      totalSize += entry.size;
+    }
+
+    long reclaimed = 0L;
+    Map<String, Long> remaining = new HashMap<>();
+    for (Entry entry : entries) {
+      long age = now - entry.lastAccess;
+      boolean tooOld = maxAge >= 0 && age > maxAge;
+      boolean tooBig = maxSize >= 0 && totalSize > maxSize;
+      if ((tooOld || tooBig) && age > MIN_AGE_MILLISECONDS && remove(entry)) {
+        totalSize -= entry.size;
+        reclaimed += entry.size;
+      } else {
+        remaining.put(entry.hash, entry.lastAccess);
+      }
+    }
+    journal.rewrite(remaining);
+    removeLocksOfMissingEntries();
+    if (maxAge >= 0) {
+      reclaimed += removeAbandonedPartialDownloads(now - Math.max(maxAge, MIN_AGE_MILLISECONDS));
+    }
+    logger.debug(String.format("User cache cleaned, %d bytes reclaimed", reclaimed));
+    return reclaimed;
+  }
+
+  private List<Entry> listEntries(Map<String, Long> lastAccesses) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (Stream<Path> list = Files.list(dir.toPath())) {
+      list.filter(p -> Files.isDirectory(p) && !p.getFileName().toString().startsWith("_"))
+        .forEach(p -> {
+          String hash = p.getFileName().toString();
+          Long lastAccess = lastAccesses.get(hash);
+          entries.add(new Entry(hash, lastAccess != null ? lastAccess : lastModified(p), size(p)));
+        });
+    }
+    return entries;
+  }
+
+  /**
+   * Partial downloads are kept in the temp dir so that they can be resumed, but nothing
+   * removes them if the file is not requested anymore.
+   */
+  private long removeAbandonedPartialDownloads(long modifiedBefore) throws IOException {
+    long reclaimed = 0L;
+    try (Stream<Path> list = Files.list(tmpDir.toPath())) {
+      for (Path p : (Iterable<Path>) list::iterator) {
+        String name = p.getFileName().toString();
+        if ((name.endsWith(".part") || name.endsWith(".part.validator")) && lastModified(p) < modifiedBefore) {
+          long size = p.toFile().length();
+          if (p.toFile().delete()) {
+            reclaimed += size;
+          }
+        }
+      }
+    }
+    return reclaimed;
+  }
+
+  /**
+   * Lock files are created for each downloaded entry. They are removed once their entry is not in the cache
+   * anymore, unless another process holds the lock, for example to download the entry again. See
+   * {@link CacheLocks#deleteIfUnlocked(File)}.
+   */
+  private void removeLocksOfMissingEntries() throws IOException {
+    if (!locksDir.isDirectory()) {
+      return;
+    }
+    try (Stream<Path> list = Files.list(locksDir.toPath())) {
+      for (Path p : (Iterable<Path>) list::iterator) {
+        String name = p.getFileName().toString();
+        if (name.endsWith(".lock") && !new File(dir, name.substring(0, name.length() - ".lock".length())).exists()) {
+          CacheLocks.deleteIfUnlocked(p.toFile());
+        }
+      }
+    }
+  }
+
+  /**
+   * The directory is first moved to the temp dir, so that other processes either see the complete entry
+   * or no entry at all.
+   */
+  private boolean remove(Entry entry) {
+    File hashDir = new File(dir, entry.hash);
+    File trash = new File(tmpDir, "evicted-" + entry.hash + "-" + System.nanoTime());
+    if (!hashDir.renameTo(trash)) {
+      logger.debug("Unable to evict cache entry " + entry.hash);
+      return false;
+    }
+    deleteQuietly(trash.toPath());
+    return true;
+  }
+
+  private static void deleteQuietly(Path trash) {
+    try (Stream<Path> files = Files.list(trash)) {
+      files.forEach(p -> p.toFile().delete());
+    } catch (IOException e) {
+      // ignore, the temp dir can be cleaned later
+    }
+    trash.toFile().delete();
+  }
+
+  private static long lastModified(Path p) {
+    try {
+      return Files.getLastModifiedTime(p).toMillis();
+    } catch (IOException e) {
+      return System.currentTimeMillis();
+    }
+  }
+
+  private static long size(Path hashDir) {
+    try (Stream<Path> files = Files.list(hashDir)) {
+      return files.mapToLong(p -> p.toFile().length()).sum();
+    } catch (IOException e) {
+      return 0L;
+    }
+  }
+
+  private static class Entry {
+    private final String hash;
+    private final long lastAccess;
+    private final long size;
+
+    Entry(String hash, long lastAccess, long size) {
+      this.hash = hash;
+      this.lastAccess = lastAccess;
+      this.size = size;
+    }
+  }
+}
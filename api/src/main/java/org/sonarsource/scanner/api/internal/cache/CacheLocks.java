@@ -0,0 +1,134 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Locks on entries of the cache, shared by all the processes using the same cache directory. File locks are
+ * released by the operating system when the process holding them dies, so a crashed process never blocks
+ * the others.
+ */
+class CacheLocks {
+
+  // File locks are held on behalf of the whole JVM, so threads of the same JVM need another lock
+  private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+  private static final int DELETED_MARKER = 'D';
+
+  private final File locksDir;
+  private final Logger logger;
+
+  CacheLocks(File locksDir, Logger logger) {
+    this.locksDir = locksDir;
+    this.logger = logger;
+  }
+
+  void withLock(String hash, Runnable action) {
+    withLock(hash, exclusive -> action.run());
+  }
+
+  /**
+   * The action is told whether it runs under the inter-process lock. It doesn't when the lock file
+   * can't be created, and then other processes may work on the same entry concurrently.
+   */
+  void withLock(String hash, LockedAction action) {
+    File lockFile = new File(locksDir, hash + ".lock");
+    Object jvmLock = JVM_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), k -> new Object());
+    synchronized (jvmLock) {
+      while (!tryWithLock(lockFile, action)) {
+        logger.debug("Lock file " + lockFile + " was deleted, lock it again");
+      }
+    }
+  }
+
+  /**
+   * @return false if the lock file was deleted by {@link #deleteIfUnlocked(File)} between its opening and its
+   * locking, in which case the locked file is not the one that other processes lock.
+   */
+  private boolean tryWithLock(File lockFile, LockedAction action) {
+    try (RandomAccessFile raf = open(lockFile)) {
+      if (raf == null) {
+        action.run(false);
+        return true;
+      }
+      try (FileChannel channel = raf.getChannel();
+        FileLock lock = channel.lock()) {
+        if (raf.length() > 0) {
+          return false;
+        }
+        action.run(true);
+        return true;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to lock " + lockFile, e);
+    }
+  }
+
+  /**
+   * Deletes a lock file if no process holds it. A process may have opened the file without having locked it yet,
+   * so the file is marked as deleted, by writing into it, before being deleted.
+   */
+  static boolean deleteIfUnlocked(File lockFile) {
+    try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+      FileChannel channel = raf.getChannel();
+      FileLock lock = channel.tryLock()) {
+      if (lock == null) {
+        return false;
+      }
+      raf.write(DELETED_MARKER);
+      if (lockFile.delete()) {
+        return true;
+      }
+      // open files can't be deleted on Windows
+      raf.setLength(0);
+      return false;
+    } catch (IOException | OverlappingFileLockException e) {
+      return false;
+    }
+  }
+
+  @FunctionalInterface
+  interface LockedAction {
+    void run(boolean exclusive);
+  }
+
+  /**
+   * Returns null if the lock file can't be created, for example on read-only file systems. The cache
+   * is then used without inter-process locks, as it was before locks were introduced.
+   */
+  private RandomAccessFile open(File lockFile) {
+    try {
+      Files.createDirectories(locksDir.toPath());
+      return new RandomAccessFile(lockFile, "rw");
+    } catch (IOException e) {
+      logger.debug("Unable to create lock file " + lockFile + ": " + e.getMessage());
+      return null;
+    }
+  }
+}
@@ -19,10 +19,24 @@
  */
 package org.sonarsource.scanner.api.internal.cache;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Properties;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 /**
  * This class is responsible for managing Sonar batch file cache. You can put file into cache and
@@ -33,24 +47,48 @@ public class FileCache {
 
   /** Maximum loop count when creating temp directories. */
   private static final int TEMP_DIR_ATTEMPTS = 10000;
+  // distinguishes the partial downloads of this process when cache locks are not available
+  private static final String PROCESS_ID = Long.toHexString(new SecureRandom().nextLong());
 
   private final File dir;
   private final File tmpDir;
+  private final File metadataDir;
+  private final File locksDir;
+  private final AccessJournal accessJournal;
+  private final CacheLocks locks;
   private final FileHashes hashes;
+  private final boolean verifyIntegrity;
   private final Logger logger;
 
   FileCache(File dir, FileHashes fileHashes, Logger logger) {
+    this(dir, fileHashes, false, logger);
+  }
+
+  FileCache(File dir, FileHashes fileHashes, boolean verifyIntegrity, Logger logger) {
     this.hashes = fileHashes;
+    this.verifyIntegrity = verifyIntegrity;
     this.logger = logger;
     this.dir = createDir(dir, "user cache");
     logger.info(String.format("User cache: %s", dir.getAbsolutePath()));
     this.tmpDir = createDir(new File(dir, "_tmp"), "temp dir");
+    this.metadataDir = new File(dir, "_metadata");
+    this.accessJournal = new AccessJournal(new File(dir, "_access.journal"), tmpDir, logger);
+    this.locksDir = new File(dir, "_locks");
+    this.locks = new CacheLocks(locksDir, logger);
   }
 
   static FileCache create(File dir, Logger logger) {
     return new FileCache(dir, new FileHashes(), logger);
   }
 
+  /**
+   * @param verifyIntegrity if true, the content of cached files is checked against their hash when their size
+   * or last modification date changed since they were last verified
+   */
+  static FileCache create(File dir, boolean verifyIntegrity, Logger logger) {
+    return new FileCache(dir, new FileHashes(), verifyIntegrity, logger);
+  }
+
   public File getDir() {
     return dir;
   }
@@ -62,36 +100,254 @@ public class FileCache {
   @CheckForNull
   public File get(String filename, String hash) {
     File cachedFile = new File(new File(dir, hash), filename);
-    if (cachedFile.exists()) {
+    if (cachedFile.exists() && isIntact(hash, cachedFile)) {
+      accessJournal.record(hash);
       return cachedFile;
     }
-    logger.debug(String.format("No file found in the cache with name %s and hash %s", filename, hash));
+    logger.debug(() -> String.format("No file found in the cache with name %s and hash %s", filename, hash));
     return null;
   }
 
+  /**
+   * Hash used to store a content in the cache. The stream is closed by this method.
+   */
+  public String hash(InputStream input) {
+    return hashes.of(input);
+  }
+
   @FunctionalInterface
   public interface Downloader {
     void download(String filename, File toFile) throws IOException;
   }
 
+  /**
+   * Downloader able to resume a download interrupted by a previous attempt, for example because of a
+   * timeout or of a connection reset. Partially downloaded files are kept in the temp dir of the cache.
+   */
+  public interface ResumableDownloader extends Downloader {
+    void download(String filename, PartialDownload partialDownload) throws IOException;
+  }
+
+  /**
+   * State of a download started by a previous attempt
+   */
+  public interface PartialDownload {
+    /**
+     * Number of bytes already downloaded, or 0 if there is nothing to resume
+     */
+    long length();
+
+    /**
+     * Validator (ETag or Last-Modified) of the response that provided the downloaded bytes
+     */
+    @CheckForNull
+    String validator();
+
+    /**
+     * Open the stream to write the content.
+     *
+     * @param resume true to append the remaining bytes, false to restart from scratch
+     * @param validator validator of the new response, or null if it can't be resumed later
+     */
+    OutputStream open(boolean resume, @Nullable String validator) throws IOException;
+  }
+
+  /**
+   * Look for a file in the cache and download it if missing. When several processes request the same
+   * missing file, only one of them downloads it while the others wait and then reuse it.
+   */
   public File get(String filename, String hash, Downloader downloader) {
     // Does not fail if another process tries to create the directory at the same time.
     File hashDir = hashDir(hash);
     File targetFile = new File(hashDir, filename);
-    if (!targetFile.exists()) {
-      File tempFile = newTempFile();
-      download(downloader, filename, tempFile);
-      String downloadedHash = hashes.of(tempFile);
-      if (!hash.equals(downloadedHash)) {
-        throw new IllegalStateException("INVALID HASH: File " + tempFile.getAbsolutePath() + " was expected to have hash " + hash
-          + " but was downloaded with hash " + downloadedHash);
-      }
-      mkdirQuietly(hashDir);
-      renameQuietly(tempFile, targetFile);
+    if (!targetFile.exists() || !isIntact(hash, targetFile)) {
+      locks.withLock(hash, exclusive -> {
+        if (!targetFile.exists() || !isIntact(hash, targetFile)) {
+          download(downloader, filename, hash, hashDir, targetFile, exclusive);
+          if (verifyIntegrity) {
+            markVerified(targetFile);
+          }
+        } else {
+          logger.debug(() -> String.format("File %s was downloaded by another process", targetFile.getAbsolutePath()));
+        }
+      });
     }
+    accessJournal.record(hash);
     return targetFile;
   }
 
+  /**
+   * Record an access to the entries of the given files, for example when a process keeps using them, so that
+   * they're not evicted by other processes. Files that are not in the cache are ignored.
+   */
+  public void recordAccess(Collection<File> files) {
+    for (File file : files) {
+      File hashDir = file.getAbsoluteFile().getParentFile();
+      if (hashDir != null && dir.getAbsoluteFile().equals(hashDir.getParentFile())) {
+        accessJournal.record(hashDir.getName());
+      }
+    }
+  }
+
+  /**
+   * When verification is enabled, the size and last modification date of a verified file are stored in a
+   * sidecar file. The file is hashed again only if they changed. A corrupted file is removed from the cache.
+   */
+  private boolean isIntact(String hash, File cachedFile) {
+    if (!verifyIntegrity) {
+      return true;
+    }
+    File statFile = statFile(cachedFile);
+    String stat = cachedFile.length() + " " + cachedFile.lastModified();
+    if (statFile.isFile() && stat.equals(readQuietly(statFile))) {
+      return true;
+    }
+    String actualHash = hashes.of(cachedFile);
+    if (hash.equals(actualHash)) {
+      markVerified(cachedFile);
+      return true;
+    }
+    logger.warn(String.format("Corrupted file in user cache, it will be removed: %s (expected hash %s but was %s)",
+      cachedFile.getAbsolutePath(), hash, actualHash));
+    File trash = new File(tmpDir, "corrupted-" + hash + "-" + System.nanoTime());
+    if (!cachedFile.renameTo(trash)) {
+      cachedFile.delete();
+    }
+    trash.delete();
+    statFile.delete();
+    return false;
+  }
+
+  private void markVerified(File cachedFile) {
+    String stat = cachedFile.length() + " " + cachedFile.lastModified();
+    try {
+      Files.write(statFile(cachedFile).toPath(), stat.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      logger.debug("Unable to store verification of " + cachedFile.getAbsolutePath() + ": " + e.getMessage());
+    }
+  }
+
+  private static File statFile(File cachedFile) {
+    return new File(cachedFile.getParentFile(), cachedFile.getName() + ".verified");
+  }
+
+  @CheckForNull
+  private static String readQuietly(File file) {
+    try {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void download(Downloader downloader, String filename, String hash, File hashDir, File targetFile, boolean exclusive) {
+    if (downloader instanceof ResumableDownloader) {
+      downloadResumable((ResumableDownloader) downloader, filename, hash, hashDir, targetFile, exclusive);
+      return;
+    }
+    File tempFile = newTempFile();
+    download(downloader, filename, tempFile);
+    String downloadedHash = hashes.of(tempFile);
+    if (!hash.equals(downloadedHash)) {
+      throw new IllegalStateException("INVALID HASH: File " + tempFile.getAbsolutePath() + " was expected to have hash " + hash
+        + " but was downloaded with hash " + downloadedHash);
+    }
+    mkdirQuietly(hashDir);
+    renameQuietly(tempFile, targetFile);
+  }
+
+  private void downloadResumable(ResumableDownloader downloader, String filename, String hash, File hashDir, File targetFile, boolean exclusive) {
+    // Under the lock, only one process downloads a given hash at a time, so the partial file can be named after it
+    // and resumed by the next process. Without lock, each process uses its own partial file.
+    String partName = exclusive ? hash : (hash + "-" + PROCESS_ID);
+    PartialFile partialFile = new PartialFile(new File(tmpDir, partName + ".part"), new File(tmpDir, partName + ".part.validator"));
+    try {
+      downloader.download(filename, partialFile);
+    } catch (IOException e) {
+      deleteIfNotResumable(partialFile, exclusive);
+      throw new IllegalStateException("Fail to download " + filename + " to " + partialFile.file, e);
+    } catch (RuntimeException e) {
+      deleteIfNotResumable(partialFile, exclusive);
+      throw e;
+    }
+    String downloadedHash = partialFile.hash();
+    if (!hash.equals(downloadedHash)) {
+      partialFile.delete();
+      throw new IllegalStateException("INVALID HASH: File " + partialFile.file.getAbsolutePath() + " was expected to have hash " + hash
+        + " but was downloaded with hash " + downloadedHash);
+    }
+    mkdirQuietly(hashDir);
+    renameQuietly(partialFile.file, targetFile);
+    partialFile.delete();
+  }
+
+  /**
+   * The partial file of a process is never resumed by another one, so it's deleted instead of being kept
+   * for the next attempt.
+   */
+  private static void deleteIfNotResumable(PartialFile partialFile, boolean exclusive) {
+    if (!exclusive) {
+      partialFile.delete();
+    }
+  }
+
+  /**
+   * Remove the least recently used files when the cache is bigger than {@code maxSize} bytes, and the
+   * files that were not used during the last {@code maxAge} milliseconds. Files used during the last hour
+   * are kept.
+   *
+   * @param maxSize maximum size in bytes, or a negative value if unlimited
+   * @param maxAge maximum duration in milliseconds since last use, or a negative value if unlimited
+   * @return the number of bytes reclaimed
+   */
+  public long evict(long maxSize, long maxAge) {
+    return new CacheEviction(dir, tmpDir, accessJournal, locksDir, logger).evict(maxSize, maxAge);
+  }
+
+  /**
+   * Load metadata previously stored with {@link #putMetadata(String, Properties)}. Returns null if
+   * nothing was stored for this key or if it can't be read.
+   */
+  @CheckForNull
+  public Properties getMetadata(String key) {
+    File file = metadataFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      props.load(in);
+      return props;
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warn(String.format("Unable to read cache metadata %s: %s", file.getAbsolutePath(), e.getMessage()));
+      return null;
+    }
+  }
+
+  /**
+   * Store small data along with the cached files, for instance validators of a server response. The file
+   * is replaced atomically so that concurrent processes never read a partially written file.
+   */
+  public void putMetadata(String key, Properties props) {
+    mkdirQuietly(metadataDir);
+    File tempFile = newTempFile();
+    try {
+      try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+        props.store(out, null);
+      }
+      Files.move(tempFile.toPath(), metadataFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn(String.format("Unable to write cache metadata %s: %s", key, e.getMessage()));
+      tempFile.delete();
+    }
+  }
+
+  private File metadataFile(String key) {
+    // keys may contain characters that are not allowed in filenames, for example server URLs
+    String hashedKey = hashes.of(new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8)));
+    return new File(metadataDir, hashedKey + ".properties");
+  }
+
   private void download(Downloader downloader, String filename, File tempFile) {
     try {
       downloader.download(filename, tempFile);
@@ -157,4 +413,66 @@ public class FileCache {
     }
     return dir;
   }
+
+  private static class PartialFile implements PartialDownload {
+    private final File file;
+    private final File validatorFile;
+    private MessageDigest digest;
+
+    PartialFile(File file, File validatorFile) {
+      this.file = file;
+      this.validatorFile = validatorFile;
+    }
+
+    @Override
+    public long length() {
+      return validator() != null ? file.length() : 0L;
+    }
+
+    @CheckForNull
+    @Override
+    public String validator() {
+      if (!validatorFile.isFile() || !file.isFile()) {
+        return null;
+      }
+      try {
+        String validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+        return validator.isEmpty() ? null : validator;
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public OutputStream open(boolean resume, @Nullable String validator) throws IOException {
+      digest = FileHashes.newDigest();
+      if (resume) {
+        // hash the bytes downloaded by the previous attempt
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+          byte[] buffer = new byte[8192];
+          while (in.read(buffer) != -1) {
+            // only update digest
+          }
+        }
+      }
+      if (validator != null) {
+        Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+      } else {
+        Files.deleteIfExists(validatorFile.toPath());
+      }
+      return new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(file, resume)), digest);
+    }
+
+    String hash() {
+      if (digest == null) {
+        throw new IllegalStateException("Nothing downloaded to " + file);
+      }
+      return FileHashes.toHex(digest.digest());
+    }
+
+    void delete() {
+      file.delete();
+      validatorFile.delete();
+    }
+  }
 }
@@ -26,6 +26,7 @@ import javax.annotation.Nullable;
 public class FileCacheBuilder {
   private final Logger logger;
   private File userHome;
+  private boolean verifyIntegrity = false;
 
   public FileCacheBuilder(Logger logger) {
     this.logger = logger;
@@ -41,12 +42,20 @@ public class FileCacheBuilder {
     return this;
   }
 
+  /**
+   * Check that cached files were not altered since they were downloaded
+   */
+  public FileCacheBuilder setVerifyIntegrity(boolean verifyIntegrity) {
+    this.verifyIntegrity = verifyIntegrity;
+    return this;
+  }
+
   public FileCache build() {
     if (userHome == null) {
       userHome = findHome();
     }
     File cacheDir = new File(userHome, "cache");
-    return FileCache.create(cacheDir, logger);
+    return FileCache.create(cacheDir, verifyIntegrity, logger);
   }
   
   private static File findHome() {
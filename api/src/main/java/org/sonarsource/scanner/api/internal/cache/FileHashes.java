@@ -23,8 +23,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Hashes used to store files in the cache directory.
@@ -33,7 +33,12 @@ import java.security.MessageDigest;
  */
 class FileHashes {
 
-  private static final int STREAM_BUFFER_LENGTH = 1024;
+  private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // reused by the successive calls of a thread. Engine jars are hashed by several download threads.
+  private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(FileHashes::newDigest);
+  private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[STREAM_BUFFER_LENGTH]);
 
   String of(File file) {
     try {
@@ -47,17 +52,27 @@ class FileHashes {
    * Computes the hash of given stream. The stream is closed by this method.
    */
   String of(InputStream input) {
+    MessageDigest digest = DIGEST.get();
+    digest.reset();
     try (InputStream is = input) {
-      MessageDigest digest = MessageDigest.getInstance("MD5");
       byte[] hash = digest(is, digest);
       return toHex(hash);
     } catch (Exception e) {
+      digest.reset();
       throw new IllegalStateException("Fail to compute hash", e);
     }
   }
 
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not supported", e);
+    }
+  }
+
   private static byte[] digest(InputStream input, MessageDigest digest) throws IOException {
-    final byte[] buffer = new byte[STREAM_BUFFER_LENGTH];
+    final byte[] buffer = BUFFER.get();
     int read = input.read(buffer, 0, STREAM_BUFFER_LENGTH);
     while (read > -1) {
       digest.update(buffer, 0, read);
@@ -67,8 +82,12 @@ class FileHashes {
   }
 
   static String toHex(byte[] bytes) {
-    BigInteger bi = new BigInteger(1, bytes);
-    String hexFormat = "%0" + (bytes.length << 1) + "x";
-    return String.format(hexFormat, bi);
+    char[] chars = new char[bytes.length << 1];
+    for (int i = 0; i < bytes.length; i++) {
+      int b = bytes[i] & 0xFF;
+      chars[i << 1] = HEX_DIGITS[b >>> 4];
+      chars[(i << 1) + 1] = HEX_DIGITS[b & 0x0F];
+    }
+    return new String(chars);
   }
 }
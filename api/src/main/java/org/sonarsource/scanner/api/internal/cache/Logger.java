@@ -19,10 +19,25 @@
  */
 package org.sonarsource.scanner.api.internal.cache;
 
+import java.util.function.Supplier;
+
 public interface Logger {
 
   void debug(String msg);
 
+  /**
+   * The message is built only if debug level is enabled
+   */
+  default void debug(Supplier<String> msg) {
+    if (isDebugEnabled()) {
+      debug(msg.get());
+    }
+  }
+
+  default boolean isDebugEnabled() {
+    return true;
+  }
+
   void info(String msg);
 
   void warn(String msg);
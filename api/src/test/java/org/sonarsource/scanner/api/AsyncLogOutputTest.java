@@ -0,0 +1,195 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.sonarsource.scanner.api.AsyncLogOutput.OverflowPolicy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncLogOutputTest {
+
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void write_all_messages_in_order() throws Exception {
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> messages.add(msg), 16, OverflowPolicy.BLOCK);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      int thread = t;
+      executor.submit(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          output.log(thread + ":" + i, LogOutput.Level.INFO);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    output.close();
+
+    assertThat(messages).hasSize(40_000);
+    assertInOrder(4);
+    assertThat(output.droppedCount()).isZero();
+  }
+
+  @Test
+  public void close_concurrently_with_producers() throws Exception {
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> messages.add(msg), 16, OverflowPolicy.BLOCK);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    CountDownLatch started = new CountDownLatch(4);
+    for (int t = 0; t < 4; t++) {
+      int thread = t;
+      executor.submit(() -> {
+        started.countDown();
+        for (int i = 0; i < 10_000; i++) {
+          output.log(thread + ":" + i, LogOutput.Level.INFO);
+        }
+      });
+    }
+    started.await();
+    output.close();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+    assertThat(messages).hasSize(40_000);
+    assertInOrder(4);
+  }
+
+  @Test
+  public void write_pending_messages_when_close_is_interrupted() {
+    CountDownLatch slowOutput = new CountDownLatch(1);
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> {
+      await(slowOutput);
+      messages.add(msg);
+    }, 16, OverflowPolicy.BLOCK);
+    for (int i = 0; i < 10; i++) {
+      output.log("msg" + i, LogOutput.Level.INFO);
+    }
+
+    Thread.currentThread().interrupt();
+    slowOutput.countDown();
+    output.close();
+
+    assertThat(Thread.interrupted()).isTrue();
+    assertThat(messages).hasSize(10);
+  }
+
+  @Test
+  public void drop_and_report_messages_when_full() throws Exception {
+    CountDownLatch slowOutput = new CountDownLatch(1);
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> {
+      await(slowOutput);
+      messages.add(msg);
+    }, 4, OverflowPolicy.DROP);
+
+    for (int i = 0; i < 100; i++) {
+      output.log("msg" + i, LogOutput.Level.INFO);
+    }
+    slowOutput.countDown();
+    output.close();
+
+    assertThat(output.droppedCount()).isGreaterThanOrEqualTo(95L);
+    assertThat(messages).contains("msg0");
+    assertThat(messages.get(messages.size() - 1)).endsWith("log messages were dropped because the output was too slow");
+  }
+
+  @Test
+  public void drop_only_debug_messages() throws Exception {
+    CountDownLatch slowOutput = new CountDownLatch(1);
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> {
+      await(slowOutput);
+      messages.add(msg);
+    }, 2, OverflowPolicy.DROP_DEBUG);
+
+    for (int i = 0; i < 10; i++) {
+      output.log("debug" + i, LogOutput.Level.DEBUG);
+    }
+    Thread producer = new Thread(() -> output.log("info", LogOutput.Level.INFO));
+    producer.start();
+    slowOutput.countDown();
+    producer.join();
+    output.close();
+
+    assertThat(messages).contains("info");
+    assertThat(output.droppedCount()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void write_synchronously_after_close() {
+    AsyncLogOutput output = new AsyncLogOutput((msg, level) -> messages.add(msg));
+    output.close();
+
+    output.log("msg", LogOutput.Level.INFO);
+
+    assertThat(messages).containsExactly("msg");
+  }
+
+  @Test
+  public void delegate_enabled_levels() {
+    AsyncLogOutput output = new AsyncLogOutput(new LogOutput() {
+      @Override
+      public void log(String formattedMessage, Level level) {
+      }
+
+      @Override
+      public boolean isEnabled(Level level) {
+        return level != Level.DEBUG;
+      }
+    });
+
+    assertThat(output.isEnabled(LogOutput.Level.DEBUG)).isFalse();
+    assertThat(output.isEnabled(LogOutput.Level.INFO)).isTrue();
+    output.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_invalid_capacity() {
+    new AsyncLogOutput((msg, level) -> {
+    }, 0, OverflowPolicy.BLOCK);
+  }
+
+  private void assertInOrder(int threads) {
+    int[] last = new int[threads];
+    Arrays.fill(last, -1);
+    for (String message : messages) {
+      String[] parts = message.split(":");
+      int thread = Integer.parseInt(parts[0]);
+      int index = Integer.parseInt(parts[1]);
+      assertThat(index).isEqualTo(last[thread] + 1);
+      last[thread] = index;
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -35,6 +35,7 @@ import org.sonarsource.scanner.api.EmbeddedScanner;
 import org.sonarsource.scanner.api.LogOutput;
 import org.sonarsource.scanner.api.internal.ClassloadRules;
 import org.sonarsource.scanner.api.internal.IsolatedLauncherFactory;
+import org.sonarsource.scanner.api.internal.LauncherPool;
 import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
@@ -42,7 +43,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -269,4 +273,124 @@ public class EmbeddedScannerTest {
     assertThat(p.getProperty("sonar.sourceEncoding", null)).isNull();
   }
 
+  @Test
+  public void should_reuse_pooled_launcher() {
+    LauncherPool pool = new LauncherPool();
+    EmbeddedScanner first = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    first.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    first.start();
+    first.stop();
+    verify(launcher, never()).stop();
+
+    EmbeddedScanner second = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    second.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    second.start();
+    second.runAnalysis(new Properties());
+    second.stop();
+
+    verify(batchLauncher, times(1)).createLauncher(any(Properties.class), any(ClassloadRules.class));
+    verify(launcher, times(1)).start(any(Properties.class), any(org.sonarsource.scanner.api.internal.batch.LogOutput.class));
+    verify(launcher).execute(any(Properties.class));
+    verify(batchLauncher).recordAccess(launcher);
+
+    pool.clear();
+    verify(launcher).stop();
+  }
+
+  @Test
+  public void should_log_startup_of_pooled_launcher() {
+    LogOutput logOutput = mock(LogOutput.class);
+    when(logOutput.isEnabled(any(LogOutput.Level.class))).thenReturn(true);
+    doAnswer(invocation -> {
+      ((org.sonarsource.scanner.api.internal.batch.LogOutput) invocation.getArguments()[1]).log("Fail to load plugin",
+        org.sonarsource.scanner.api.internal.batch.LogOutput.Level.WARN);
+      return null;
+    }).when(launcher).start(any(Properties.class), any(org.sonarsource.scanner.api.internal.batch.LogOutput.class));
+    LauncherPool pool = new LauncherPool();
+    EmbeddedScanner scanner = new EmbeddedScanner(batchLauncher, pool, logger, logOutput);
+    scanner.setGlobalProperty("sonar.scanner.launcherPool", "true");
+
+    scanner.start();
+
+    verify(logOutput).log("Fail to load plugin", LogOutput.Level.WARN);
+    scanner.stop();
+    pool.clear();
+  }
+
+  @Test
+  public void should_not_share_pooled_launcher_between_different_properties() {
+    LauncherPool pool = new LauncherPool();
+    EmbeddedScanner first = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    first.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    first.start();
+    first.stop();
+
+    EmbeddedScanner second = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    second.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    second.setGlobalProperty("sonar.host.url", "http://other:9000");
+    second.start();
+
+    verify(batchLauncher, times(2)).createLauncher(any(Properties.class), any(ClassloadRules.class));
+  }
+
+  @Test
+  public void should_start_prepared_launcher() throws Exception {
+    runner.setGlobalProperty("sonar.projectKey", "foo");
+    runner.prepareAsync().get();
+    runner.start();
+
+    verify(batchLauncher, times(1)).createLauncher(any(Properties.class), any(ClassloadRules.class));
+    verify(launcher).start(any(Properties.class), any(org.sonarsource.scanner.api.internal.batch.LogOutput.class));
+    assertThat(runner.serverVersion()).isEqualTo("5.2");
+  }
+
+  @Test
+  public void should_discard_prepared_launcher_if_properties_changed() throws Exception {
+    runner.prepareAsync().get();
+    runner.setGlobalProperty("sonar.projectKey", "foo");
+    runner.start();
+
+    verify(batchLauncher, times(2)).createLauncher(any(Properties.class), any(ClassloadRules.class));
+    verify(batchLauncher).release(launcher);
+  }
+
+  @Test
+  public void should_release_prepared_launcher_when_pooled_launcher_is_reused() throws Exception {
+    LauncherPool pool = new LauncherPool();
+    EmbeddedScanner first = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    first.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    first.start();
+    first.stop();
+
+    IsolatedLauncher prepared = mock(IsolatedLauncher.class);
+    when(batchLauncher.createLauncher(any(Properties.class), any(ClassloadRules.class))).thenReturn(prepared);
+    EmbeddedScanner second = new EmbeddedScanner(batchLauncher, pool, logger, mock(LogOutput.class));
+    second.setGlobalProperty("sonar.scanner.launcherPool", "true");
+    second.prepareAsync().get();
+    second.start();
+
+    assertThat(second.serverVersion()).isEqualTo("5.2");
+    verify(batchLauncher).release(prepared);
+    verify(prepared, never()).start(any(Properties.class), any(org.sonarsource.scanner.api.internal.batch.LogOutput.class));
+    pool.clear();
+  }
+
+  @Test
+  public void should_fail_to_start_if_preparation_failed() {
+    when(batchLauncher.createLauncher(any(Properties.class), any(ClassloadRules.class))).thenThrow(new IllegalStateException("unreachable"));
+    runner.prepareAsync();
+
+    expectedException.expect(IllegalStateException.class);
+    expectedException.expectMessage("unreachable");
+    runner.start();
+  }
+
+  @Test
+  public void cannot_prepare_twice() {
+    runner.prepareAsync();
+
+    expectedException.expect(IllegalStateException.class);
+    expectedException.expectMessage("already prepared");
+    runner.prepareAsync();
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LogOutputBridgeTest {
+  private LogOutput logOutput;
+  private LogOutputBridge bridge;
+
+  @Before
+  public void setUp() {
+    logOutput = mock(LogOutput.class);
+    bridge = new LogOutputBridge(logOutput);
+  }
+
+  @Test
+  public void should_map_every_level() {
+    for (org.sonarsource.scanner.api.internal.batch.LogOutput.Level level : org.sonarsource.scanner.api.internal.batch.LogOutput.Level.values()) {
+      LogOutput.Level apiLevel = LogOutput.Level.valueOf(level.name());
+      when(logOutput.isEnabled(apiLevel)).thenReturn(true);
+
+      bridge.log("msg", level);
+
+      verify(logOutput).log("msg", apiLevel);
+    }
+  }
+
+  @Test
+  public void should_skip_disabled_levels() {
+    when(logOutput.isEnabled(LogOutput.Level.INFO)).thenReturn(true);
+    when(logOutput.isEnabled(LogOutput.Level.DEBUG)).thenReturn(false);
+
+    bridge.log("info", org.sonarsource.scanner.api.internal.batch.LogOutput.Level.INFO);
+    bridge.log("debug", org.sonarsource.scanner.api.internal.batch.LogOutput.Level.DEBUG);
+
+    verify(logOutput).log("info", LogOutput.Level.INFO);
+    verify(logOutput, never()).log("debug", LogOutput.Level.DEBUG);
+  }
+
+  @Test
+  public void should_log_unknown_levels_as_info() {
+    assertThat(LogOutputBridge.levelOf("WARN")).isEqualTo(LogOutput.Level.WARN);
+    assertThat(LogOutputBridge.levelOf("NOTICE")).isEqualTo(LogOutput.Level.INFO);
+  }
+}
@@ -22,7 +22,12 @@ package org.sonarsource.scanner.api;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 
 import static org.mockito.Matchers.startsWith;
 
@@ -43,10 +48,40 @@ public class LoggerAdapterTest {
 
   @Test
   public void testDebug() {
+    when(logOutput.isEnabled(LogOutput.Level.DEBUG)).thenReturn(true);
     adapter.debug("debug");
+    verify(logOutput).isEnabled(LogOutput.Level.DEBUG);
     verify(logOutput).log("debug", LogOutput.Level.DEBUG);
     verifyNoMoreInteractions(logOutput);
   }
+
+  @Test
+  public void testDebugSupplier() {
+    when(logOutput.isEnabled(LogOutput.Level.DEBUG)).thenReturn(true);
+    adapter.debug(() -> "debug");
+    verify(logOutput).log("debug", LogOutput.Level.DEBUG);
+  }
+
+  @Test
+  public void should_not_build_disabled_debug_messages() {
+    when(logOutput.isEnabled(LogOutput.Level.DEBUG)).thenReturn(false);
+    assertThat(adapter.isDebugEnabled()).isFalse();
+
+    adapter.debug(() -> {
+      throw new IllegalStateException("should not be called");
+    });
+    adapter.debug("debug");
+
+    verify(logOutput, never()).log(anyString(), any(LogOutput.Level.class));
+  }
+
+  @Test
+  public void log_all_levels_by_default() {
+    LogOutput output = (formattedMessage, level) -> {
+    };
+    assertThat(output.isEnabled(LogOutput.Level.TRACE)).isTrue();
+    assertThat(new LoggerAdapter(output).isDebugEnabled()).isTrue();
+  }
   
   @Test
   public void testInfo() {
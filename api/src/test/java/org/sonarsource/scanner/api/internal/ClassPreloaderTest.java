@@ -0,0 +1,75 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
+import org.sonarsource.scanner.api.internal.cache.FileCacheBuilder;
+import org.sonarsource.scanner.api.internal.cache.Logger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ClassPreloaderTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private ClassPreloader preloader;
+  private List<File> classpath;
+
+  @Before
+  public void setUp() throws Exception {
+    Logger logger = mock(Logger.class);
+    FileCache fileCache = new FileCacheBuilder(logger).setUserHome(temp.newFolder()).build();
+    preloader = new ClassPreloader(fileCache, logger);
+    classpath = Arrays.asList(new File("a.jar"), new File("b.jar"));
+  }
+
+  @Test
+  public void should_record_classes_per_classpath() {
+    assertThat(preloader.recorded(classpath)).isEmpty();
+
+    preloader.record(classpath, Arrays.asList("org.foo.A", "org.foo.B"));
+
+    assertThat(preloader.recorded(classpath)).containsExactly("org.foo.A", "org.foo.B");
+    assertThat(preloader.recorded(Collections.singletonList(new File("a.jar")))).isEmpty();
+  }
+
+  @Test
+  public void should_preload_classes_in_parallel() throws Exception {
+    List<String> classNames = Collections.nCopies(500, String.class.getName());
+
+    assertThat(ClassPreloader.preloadInParallel(getClass().getClassLoader(), classNames, mock(Logger.class)).get()).isEqualTo(500);
+  }
+
+  @Test
+  public void should_ignore_missing_classes() throws Exception {
+    List<String> classNames = Arrays.asList(String.class.getName(), "org.missing.Missing");
+
+    assertThat(ClassPreloader.preloadInParallel(getClass().getClassLoader(), classNames, mock(Logger.class)).get()).isEqualTo(1);
+  }
+}
@@ -22,6 +22,7 @@ package org.sonarsource.scanner.api.internal;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -104,4 +105,61 @@ public class ClassloadRulesTest {
     
     assertThat(rules.canLoad("org.sonar.runner.batch.IsolatedLauncher")).isTrue();
   }
+
+  @Test
+  public void class_rules_are_not_applied_to_whole_package() {
+    maskRules.add("org.slf4j.");
+    unmaskRules.add("org.slf4j.Logger");
+    rules = new ClassloadRules(maskRules, unmaskRules);
+
+    // decisions of package org.slf4j must not be cached
+    assertThat(rules.canLoad("org.slf4j.Foo")).isFalse();
+    assertThat(rules.canLoad("org.slf4j.Logger")).isTrue();
+    assertThat(rules.canLoad("org.slf4j.Foo")).isFalse();
+    assertThat(rules.canLoad("org.slf4j.LoggerFactory")).isTrue();
+  }
+
+  @Test
+  public void same_decisions_as_linear_scan_of_prefixes() {
+    String[] parts = {"org", "sonar", "slf4j", "Logger", "a", "ab", "com", ""};
+    Random random = new Random(42);
+    for (int test = 0; test < 500; test++) {
+      maskRules = new HashSet<>();
+      unmaskRules = new HashSet<>();
+      for (int i = random.nextInt(8); i > 0; i--) {
+        maskRules.add(randomName(random, parts));
+      }
+      for (int i = random.nextInt(8); i > 0; i--) {
+        unmaskRules.add(randomName(random, parts));
+      }
+      rules = new ClassloadRules(maskRules, unmaskRules);
+
+      for (int i = 0; i < 100; i++) {
+        String className = randomName(random, parts) + "Foo";
+        boolean expected = linearBestMatch(unmaskRules, className) > linearBestMatch(maskRules, className);
+        assertThat(rules.canLoad(className)).as(maskRules + " " + unmaskRules + " " + className).isEqualTo(expected);
+      }
+    }
+  }
+
+  private static String randomName(Random random, String[] parts) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = random.nextInt(4); i > 0; i--) {
+      sb.append(parts[random.nextInt(parts.length)]);
+      if (random.nextBoolean()) {
+        sb.append('.');
+      }
+    }
+    return sb.toString();
+  }
+
+  private static int linearBestMatch(Set<String> prefixes, String name) {
+    int bestMatch = -1;
+    for (String s : prefixes) {
+      if (name.startsWith(s) && s.length() > bestMatch) {
+        bestMatch = s.length();
+      }
+    }
+    return bestMatch;
+  }
 }
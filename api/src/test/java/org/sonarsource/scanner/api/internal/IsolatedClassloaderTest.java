@@ -22,12 +22,23 @@ package org.sonarsource.scanner.api.internal;
 import org.junit.Before;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import static org.mockito.Mockito.when;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -35,6 +46,7 @@ import static org.mockito.Mockito.mock;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.sonarsource.scanner.api.internal.ClassloadRules;
 import org.sonarsource.scanner.api.internal.IsolatedClassloader;
 
@@ -42,6 +54,9 @@ public class IsolatedClassloaderTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private IsolatedClassloader classLoader;
 
   @Before
@@ -69,6 +84,103 @@ public class IsolatedClassloaderTest {
     assertThat(classLoader.loadClass("org.junit.Test", false)).isNotNull();
   }
 
+  @Test
+  public void should_not_lock_classloader_when_loading_classes() throws Exception {
+    ClassloadRules rules = mock(ClassloadRules.class);
+    when(rules.canLoad("org.junit.Test")).thenReturn(true);
+    classLoader = new IsolatedClassloader(getClass().getClassLoader(), rules);
+
+    // a non parallel capable classloader would use itself as lock
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    synchronized (classLoader) {
+      Future<Class<?>> loaded = executor.submit(() -> classLoader.loadClass("org.junit.Test", false));
+      assertThat(loaded.get(10, TimeUnit.SECONDS)).isNotNull();
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void should_load_classes_and_resources_from_indexed_jars() throws Exception {
+    File jar = createDummyJar();
+    classLoader.addFiles(Arrays.asList(jar));
+
+    Class<?> loaded = classLoader.loadClass(Dummy.class.getName(), false);
+    assertThat(loaded).isNotSameAs(Dummy.class);
+    assertThat(loaded.getClassLoader()).isSameAs(classLoader);
+    assertThat(loaded.getPackage().getName()).isEqualTo(Dummy.class.getPackage().getName());
+    assertThat(loaded.getProtectionDomain().getCodeSource().getLocation()).isEqualTo(jar.toURI().toURL());
+
+    assertThat(classLoader.getResource("META-INF/dummy.txt")).isEqualTo(new URL("jar:" + jar.toURI().toURL() + "!/META-INF/dummy.txt"));
+    assertThat(classLoader.getResource("META-INF/missing.txt")).isNull();
+    assertThat(classLoader.getResource("org/missing/Missing.class")).isNull();
+    assertThat(Collections.list(classLoader.getResources("META-INF/dummy.txt"))).hasSize(1);
+
+    thrown.expect(ClassNotFoundException.class);
+    classLoader.loadClass("org.missing.Missing", false);
+  }
+
+  @Test
+  public void should_record_loaded_classes() throws Exception {
+    classLoader.addFiles(Arrays.asList(createDummyJar()));
+    assertThat(classLoader.loadedClasses()).isEmpty();
+
+    classLoader.recordLoadedClasses();
+    classLoader.loadClass(Dummy.class.getName(), false);
+    classLoader.loadClass(Dummy.class.getName(), false);
+    classLoader.loadClass(String.class.getName(), false);
+
+    assertThat(classLoader.loadedClasses()).containsExactly(Dummy.class.getName());
+  }
+
+  @Test
+  public void should_not_reopen_jars_once_closed() throws Exception {
+    classLoader.addFiles(Arrays.asList(createDummyJar()));
+    assertThat(classLoader.getResource("META-INF/dummy.txt")).isNotNull();
+
+    classLoader.close();
+
+    assertThat(classLoader.getResource("META-INF/dummy.txt")).isNull();
+    assertThat(Collections.list(classLoader.getResources("META-INF/dummy.txt"))).isEmpty();
+  }
+
+  @Test
+  public void should_open_jars_concurrently() throws Exception {
+    classLoader.addFiles(Arrays.asList(createDummyJar()));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<URL>> futures = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        futures.add(executor.submit(() -> classLoader.getResource("META-INF/dummy.txt")));
+      }
+      for (Future<URL> future : futures) {
+        assertThat(future.get(10, TimeUnit.SECONDS)).isNotNull();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private File createDummyJar() throws IOException {
+    String dummyPath = Dummy.class.getName().replace('.', '/') + ".class";
+    File jar = temp.newFile("dummy.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+      InputStream dummy = getClass().getClassLoader().getResourceAsStream(dummyPath)) {
+      out.putNextEntry(new JarEntry(dummyPath));
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = dummy.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      out.closeEntry();
+      out.putNextEntry(new JarEntry("META-INF/dummy.txt"));
+      out.closeEntry();
+    }
+    return jar;
+  }
+
+  public static class Dummy {
+  }
+
   @Test
   public void add_jars() throws MalformedURLException {
     File f = new File("dummy");
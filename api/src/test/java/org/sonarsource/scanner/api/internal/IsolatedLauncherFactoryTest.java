@@ -19,11 +19,22 @@
  */
 package org.sonarsource.scanner.api.internal;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonarsource.scanner.api.internal.ClassloadRules;
 import org.sonarsource.scanner.api.internal.IsolatedLauncherFactory;
 import org.sonarsource.scanner.api.internal.JarDownloader;
@@ -31,12 +42,23 @@ import org.sonarsource.scanner.api.internal.ScannerException;
 import org.sonarsource.scanner.api.internal.TempCleaning;
 import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
 import org.sonarsource.scanner.api.internal.batch.LogOutput;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
+import org.sonarsource.scanner.api.internal.cache.FileCacheBuilder;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class IsolatedLauncherFactoryTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   IsolatedLauncherFactory factory;
   Properties props;
   TempCleaning tempCleaning;
@@ -60,6 +82,93 @@ public class IsolatedLauncherFactoryTest {
     }
   }
 
+  @Test
+  public void should_preload_classes_recorded_by_previous_run() throws Exception {
+    Logger logger = spy(new NoOpLogger());
+    factory = new IsolatedLauncherFactory(StartingLauncher.class.getName(), tempCleaning, logger);
+    List<File> jars = Collections.singletonList(createEngineJar());
+    FileCache fileCache = new FileCacheBuilder(logger).setUserHome(temp.newFolder()).build();
+    when(jarDownloader.download()).thenReturn(jars);
+    when(jarDownloader.fileCache()).thenReturn(fileCache);
+    ClassloadRules rules = new ClassloadRules(new HashSet<String>(), new HashSet<>(Collections.singletonList("org.sonarsource.scanner.api.internal.batch.")));
+
+    props.setProperty(InternalProperties.SCANNER_RECORD_PRELOAD_CLASSES, "true");
+    IsolatedLauncher launcher = factory.createLauncher(jarDownloader, rules, props);
+    launcher.start(new Properties(), mock(LogOutput.class));
+    launcher.stop();
+
+    assertThat(new ClassPreloader(fileCache, logger).recorded(jars)).containsOnly(
+      FakeIsolatedLauncher.class.getName(), StartingLauncher.class.getName(), StartedComponent.class.getName());
+
+    // classes listed explicitly are preloaded with the recorded ones
+    props = new Properties();
+    props.setProperty(InternalProperties.SCANNER_PRELOAD_CLASSES, "org.unknown.Foo," + StartedComponent.class.getName());
+    factory.createLauncher(jarDownloader, rules, props);
+
+    verify(logger, timeout(10_000)).debug(startsWith("Preloaded 3/4 classes"));
+  }
+
+  private File createEngineJar() throws IOException {
+    File jar = temp.newFile("engine.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      for (Class<?> c : Arrays.asList(FakeIsolatedLauncher.class, StartingLauncher.class, StartedComponent.class)) {
+        String path = c.getName().replace('.', '/') + ".class";
+        out.putNextEntry(new JarEntry(path));
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(path)) {
+          byte[] buffer = new byte[1024];
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+        }
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  public static class StartingLauncher extends FakeIsolatedLauncher {
+    @Override
+    public void start(Properties properties, LogOutput logger) {
+      new StartedComponent();
+    }
+  }
+
+  public static class StartedComponent {
+  }
+
+  public static class NoOpLogger implements Logger {
+    @Override
+    public void debug(String msg) {
+    }
+
+    @Override
+    public void debug(Supplier<String> msg) {
+      debug(msg.get());
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+      return true;
+    }
+
+    @Override
+    public void info(String msg) {
+    }
+
+    @Override
+    public void warn(String msg) {
+    }
+
+    @Override
+    public void error(String msg) {
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+    }
+  }
+
   public static class FakeIsolatedLauncher implements IsolatedLauncher {
     public static Properties props = null;
 
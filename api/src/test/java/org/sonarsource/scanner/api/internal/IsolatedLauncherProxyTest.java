@@ -24,6 +24,8 @@ import org.junit.Test;
 import org.sonarsource.scanner.api.internal.IsolatedLauncherProxy;
 import org.sonarsource.scanner.api.internal.batch.BatchIsolatedLauncher;
 import org.sonarsource.scanner.api.internal.cache.Logger;
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.concurrent.Callable;
@@ -61,6 +63,52 @@ public class IsolatedLauncherProxyTest {
     assertThat(c.call()).isEqualTo(URLClassLoader.class.getSimpleName());
   }
 
+  @Test
+  public void delegate_arguments_and_primitive_results() {
+    CharSequence s = IsolatedLauncherProxy.create(cl, "test", CharSequence.class, mock(Logger.class));
+    assertThat(s.length()).isEqualTo(4);
+    assertThat(s.charAt(1)).isEqualTo('e');
+    assertThat(s.subSequence(1, 3)).isEqualTo("es");
+    assertThat(s.hashCode()).isEqualTo("test".hashCode());
+  }
+
+  @Test(expected = IOException.class)
+  public void checked_exceptions_unwrapped() throws Exception {
+    Callable<?> c = IsolatedLauncherProxy.create(cl, Callable.class, CheckedExceptionThrower.class.getName(), mock(Logger.class));
+    c.call();
+  }
+
+  @Test
+  public void close_classloader() throws Exception {
+    ClosableClassLoader closable = new ClosableClassLoader(cl);
+    CharSequence s = IsolatedLauncherProxy.create(closable, "test", CharSequence.class, mock(Logger.class));
+
+    IsolatedLauncherProxy.closeClassLoader(s);
+    IsolatedLauncherProxy.closeClassLoader("not a proxy");
+
+    assertThat(closable.closed).isTrue();
+  }
+
+  private static class ClosableClassLoader extends ClassLoader implements Closeable {
+    private boolean closed = false;
+
+    ClosableClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  public static class CheckedExceptionThrower implements Callable<String> {
+    @Override
+    public String call() throws Exception {
+      throw new IOException("message");
+    }
+  }
+
   public static class ExceptionThrower implements Runnable {
     @Override
     public void run() {
@@ -19,27 +19,53 @@
  */
 package org.sonarsource.scanner.api.internal;
 
-import org.junit.Test;
-import org.sonarsource.scanner.api.internal.JarExtractor;
+import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonarsource.scanner.api.internal.JarExtractor;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
+import org.sonarsource.scanner.api.internal.cache.FileCacheBuilder;
+import org.sonarsource.scanner.api.internal.cache.Logger;
+
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
 
 public class JarExtractorTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Test
   public void test_extract() throws Exception {
-    Path jarFile = new JarExtractor().extractToTemp("fake");
+    FileCache fileCache = new FileCacheBuilder(mock(Logger.class)).setUserHome(temp.newFolder()).build();
+    File jarFile = new JarExtractor().extractToCache("fake", fileCache);
     assertThat(jarFile).exists();
-    assertThat(new String(Files.readAllBytes(jarFile), StandardCharsets.UTF_8)).isEqualTo("Fake jar for unit tests");
-    assertThat(jarFile.toUri().toURL().toString()).doesNotContain("jar:file");
+    assertThat(jarFile.getParentFile().getParentFile()).isEqualTo(fileCache.getDir());
+    assertThat(new String(Files.readAllBytes(jarFile.toPath()), StandardCharsets.UTF_8)).isEqualTo("Fake jar for unit tests");
+    assertThat(jarFile.toURI().toURL().toString()).doesNotContain("jar:file");
+  }
+
+  @Test
+  public void should_extract_only_once() throws Exception {
+    FileCache fileCache = new FileCacheBuilder(mock(Logger.class)).setUserHome(temp.newFolder()).build();
+    File jarFile = new JarExtractor().extractToCache("fake", fileCache);
+    long lastModified = jarFile.lastModified();
+    jarFile.setLastModified(lastModified - 10_000L);
+
+    File other = new JarExtractor().extractToCache("fake", fileCache);
+
+    assertThat(other).isEqualTo(jarFile);
+    assertThat(other.lastModified()).isEqualTo(lastModified - 10_000L);
   }
 
   @Test
   public void should_fail_to_extract() throws Exception {
+    FileCache fileCache = new FileCacheBuilder(mock(Logger.class)).setUserHome(temp.newFolder()).build();
     try {
-      new JarExtractor().extractToTemp("unknown");
+      new JarExtractor().extractToCache("unknown", fileCache);
       fail();
     } catch (IllegalStateException e) {
       assertThat(e).hasMessage("Fail to extract unknown.jar");
@@ -20,20 +20,29 @@
 package org.sonarsource.scanner.api.internal;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.sonarsource.scanner.api.internal.cache.FileCache;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -50,12 +59,18 @@ public class JarsTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Before
+  public void setUp() {
+    when(fileCache.get(anyString(), anyString(), any(FileCache.Downloader.class))).thenReturn(new File("missing.jar"));
+    when(connection.retryPolicy()).thenReturn(RetryPolicy.defaultPolicy());
+  }
+
   @Test
   public void should_download_jar_files() throws Exception {
     File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
-    when(jarExtractor.extractToTemp("sonar-scanner-api-batch")).thenReturn(batchJar.toPath());
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
     // index of the files to download
-    when(connection.downloadString("/batch/index")).thenReturn(
+    answerIndex(
       "cpd.jar|CA124VADFSDS\n" +
         "squid.jar|34535FSFSDF\n");
 
@@ -63,13 +78,121 @@ public class JarsTest {
     List<File> files = jars.download();
 
     assertThat(files).isNotNull();
-    verify(connection, times(1)).downloadString("/batch/index");
+    verify(connection, times(1)).downloadStringIfModified("/batch/index", null, null);
+    verify(connection).baseUrl();
+    verify(connection).retryPolicy();
     verifyNoMoreInteractions(connection);
     verify(fileCache, times(1)).get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class));
     verify(fileCache, times(1)).get(eq("squid.jar"), eq("34535FSFSDF"), any(FileCache.Downloader.class));
+    verify(fileCache).getMetadata(anyString());
     verifyNoMoreInteractions(fileCache);
   }
 
+  @Test
+  public void should_return_files_in_index_order_when_downloading_in_parallel() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex(
+      "cpd.jar|CA124VADFSDS\n" +
+        "squid.jar|34535FSFSDF\n" +
+        "java.jar|1234567890\n");
+    File cpd = new File("cpd.jar");
+    File squid = new File("squid.jar");
+    File java = new File("java.jar");
+    when(fileCache.get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class))).thenAnswer(invocation -> {
+      // slowest download must not change the classpath order
+      Thread.sleep(100);
+      return cpd;
+    });
+    when(fileCache.get(eq("squid.jar"), eq("34535FSFSDF"), any(FileCache.Downloader.class))).thenReturn(squid);
+    when(fileCache.get(eq("java.jar"), eq("1234567890"), any(FileCache.Downloader.class))).thenReturn(java);
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), downloadThreads(3));
+    List<File> files = jars.download();
+
+    assertThat(files).containsExactly(batchJar, cpd, squid, java);
+  }
+
+  @Test
+  public void should_download_sequentially_with_single_thread() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex(
+      "cpd.jar|CA124VADFSDS\n" +
+        "squid.jar|34535FSFSDF\n");
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), downloadThreads(1));
+    jars.download();
+
+    verify(fileCache, times(1)).get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class));
+    verify(fileCache, times(1)).get(eq("squid.jar"), eq("34535FSFSDF"), any(FileCache.Downloader.class));
+  }
+
+  @Test
+  public void should_fail_if_one_parallel_download_fails() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex(
+      "cpd.jar|CA124VADFSDS\n" +
+        "squid.jar|34535FSFSDF\n");
+    when(fileCache.get(eq("squid.jar"), eq("34535FSFSDF"), any(FileCache.Downloader.class))).thenThrow(new IllegalStateException("INVALID HASH"));
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), downloadThreads(2));
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to bootstrap from server");
+
+    jars.download();
+  }
+
+  @Test
+  public void should_fail_on_invalid_download_threads() {
+    Properties props = new Properties();
+    props.put("sonar.userHome", temp.getRoot().getAbsolutePath());
+    props.put(InternalProperties.SCANNER_DOWNLOAD_THREADS, "foo");
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Invalid value for property sonar.scanner.downloadThreads: foo");
+
+    new Jars(connection, jarExtractor, mock(Logger.class), props);
+  }
+
+  @Test
+  public void should_store_bootstrap_index_with_validators() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.baseUrl()).thenReturn("http://localhost:9000");
+    when(connection.downloadStringIfModified("/batch/index", null, null))
+      .thenReturn(new ServerConnection.CacheableContent("cpd.jar|CA124VADFSDS\n", "\"abc\"", null));
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class));
+    jars.download();
+
+    ArgumentCaptor<Properties> metadata = ArgumentCaptor.forClass(Properties.class);
+    verify(fileCache).putMetadata(eq("bootstrap-index|http://localhost:9000"), metadata.capture());
+    assertThat(metadata.getValue().getProperty("index")).isEqualTo("cpd.jar|CA124VADFSDS\n");
+    assertThat(metadata.getValue().getProperty("etag")).isEqualTo("\"abc\"");
+    assertThat(metadata.getValue().getProperty("lastModified")).isNull();
+  }
+
+  @Test
+  public void should_use_cached_bootstrap_index_if_not_modified() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.baseUrl()).thenReturn("http://localhost:9000");
+    Properties cached = new Properties();
+    cached.setProperty("index", "cpd.jar|CA124VADFSDS\n");
+    cached.setProperty("etag", "\"abc\"");
+    cached.setProperty("lastModified", "Wed, 21 Oct 2015 07:28:00 GMT");
+    when(fileCache.getMetadata("bootstrap-index|http://localhost:9000")).thenReturn(cached);
+    when(connection.downloadStringIfModified("/batch/index", "\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT")).thenReturn(null);
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class));
+    jars.download();
+
+    verify(fileCache, times(1)).get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class));
+    verify(fileCache, never()).putMetadata(anyString(), any(Properties.class));
+  }
+
   @Test
   public void should_honor_sonarUserHome() throws IOException {
     Properties props = new Properties();
@@ -82,9 +205,9 @@ public class JarsTest {
   @Test
   public void should_fail_to_download_files() throws Exception {
     File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
-    when(jarExtractor.extractToTemp("sonar-scanner-api-batch")).thenReturn(batchJar.toPath());
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
     // index of the files to download
-    when(connection.downloadString("/batch/index")).thenThrow(new IllegalStateException());
+    when(connection.downloadStringIfModified("/batch/index", null, null)).thenThrow(new IllegalStateException());
 
     Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class));
     thrown.expect(IllegalStateException.class);
@@ -96,9 +219,9 @@ public class JarsTest {
   @Test
   public void test_invalid_index() throws Exception {
     File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
-    when(jarExtractor.extractToTemp("sonar-scanner-api-batch")).thenReturn(batchJar.toPath());
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
     // index of the files to download
-    when(connection.downloadString("/batch/index")).thenReturn(
+    answerIndex(
       "cpd.jar\n");
 
     Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class));
@@ -108,6 +231,130 @@ public class JarsTest {
     jars.download();
   }
 
+  @Test
+  public void should_use_last_classpath_if_server_is_unreachable_in_offline_mode() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    File cpd = temp.newFile("cpd.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.baseUrl()).thenReturn("http://localhost:9000");
+    when(connection.downloadStringIfModified("/batch/index", null, null)).thenThrow(new IOException("Connection refused"));
+    Properties record = new Properties();
+    record.setProperty("classpath", cpd.getAbsolutePath());
+    when(fileCache.getMetadata("last-classpath|http://localhost:9000")).thenReturn(record);
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), offlineBootstrap());
+    List<File> files = jars.download();
+
+    assertThat(files).containsExactly(batchJar, cpd);
+  }
+
+  @Test
+  public void should_fail_if_last_classpath_is_not_in_cache_anymore() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.baseUrl()).thenReturn("http://localhost:9000");
+    when(connection.downloadStringIfModified("/batch/index", null, null)).thenThrow(new IOException("Connection refused"));
+    Properties record = new Properties();
+    record.setProperty("classpath", new File(temp.getRoot(), "deleted.jar").getAbsolutePath());
+    when(fileCache.getMetadata("last-classpath|http://localhost:9000")).thenReturn(record);
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), offlineBootstrap());
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to get bootstrap index from server");
+
+    jars.download();
+  }
+
+  @Test
+  public void should_record_last_classpath_in_offline_mode() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    File cpd = temp.newFile("cpd.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.baseUrl()).thenReturn("http://localhost:9000");
+    answerIndex("cpd.jar|CA124VADFSDS\n");
+    when(fileCache.get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class))).thenReturn(cpd);
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class), offlineBootstrap());
+    jars.download();
+
+    ArgumentCaptor<Properties> record = ArgumentCaptor.forClass(Properties.class);
+    verify(fileCache).putMetadata(eq("last-classpath|http://localhost:9000"), record.capture());
+    assertThat(record.getValue().getProperty("index")).isEqualTo("cpd.jar|CA124VADFSDS\n");
+    assertThat(record.getValue().getProperty("classpath")).isEqualTo(cpd.getAbsolutePath());
+  }
+
+  @Test
+  public void should_not_use_last_classpath_by_default() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    when(connection.downloadStringIfModified("/batch/index", null, null)).thenThrow(new IOException("Connection refused"));
+
+    Jars jars = new Jars(fileCache, connection, jarExtractor, mock(Logger.class));
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to get bootstrap index from server");
+
+    jars.download();
+  }
+
+  @Test
+  public void should_evict_cache_entries_if_configured() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex("cpd.jar|CA124VADFSDS\n");
+    Properties props = new Properties();
+    props.setProperty(InternalProperties.SCANNER_CACHE_MAX_SIZE_MB, "100");
+    props.setProperty(InternalProperties.SCANNER_CACHE_MAX_AGE_DAYS, "30");
+
+    new Jars(fileCache, connection, jarExtractor, mock(Logger.class), props).download();
+
+    // in background
+    verify(fileCache, timeout(5_000)).evict(100L * 1024 * 1024, 30L * 24 * 60 * 60 * 1000);
+  }
+
+  @Test
+  public void should_not_evict_cache_entries_by_default() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex("cpd.jar|CA124VADFSDS\n");
+
+    new Jars(fileCache, connection, jarExtractor, mock(Logger.class)).download();
+
+    verify(fileCache, never()).evict(anyLong(), anyLong());
+  }
+
+  private static Properties downloadThreads(int threads) {
+    Properties props = new Properties();
+    props.setProperty(InternalProperties.SCANNER_DOWNLOAD_THREADS, String.valueOf(threads));
+    return props;
+  }
+
+  private static Properties offlineBootstrap() {
+    Properties props = new Properties();
+    props.setProperty(InternalProperties.SCANNER_OFFLINE_BOOTSTRAP, "true");
+    return props;
+  }
+
+  private void answerIndex(String index) throws IOException {
+    when(connection.downloadStringIfModified("/batch/index", null, null)).thenReturn(new ServerConnection.CacheableContent(index, null, null));
+  }
+
+  @Test
+  public void should_index_packages_of_downloaded_jars() throws Exception {
+    File batchJar = temp.newFile("sonar-scanner-api-batch.jar");
+    when(jarExtractor.extractToCache(eq("sonar-scanner-api-batch"), any(FileCache.class))).thenReturn(batchJar);
+    answerIndex("cpd.jar|CA124VADFSDS\n");
+    File cpd = temp.newFile("cpd.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(cpd))) {
+      out.putNextEntry(new JarEntry("org/sonar/cpd/Cpd.class"));
+      out.closeEntry();
+    }
+    when(fileCache.get(eq("cpd.jar"), eq("CA124VADFSDS"), any(FileCache.Downloader.class))).thenReturn(cpd);
+
+    new Jars(fileCache, connection, jarExtractor, mock(Logger.class)).download();
+
+    assertThat(new File(temp.getRoot(), "cpd.jar.packages")).exists();
+  }
+
   @Test
   public void test_jar_downloader() throws Exception {
     Jars.ScannerFileDownloader downloader = new Jars.ScannerFileDownloader(connection);
@@ -115,4 +362,12 @@ public class JarsTest {
     downloader.download("squid.jar", toFile);
     verify(connection).downloadFile("/batch/file?name=squid.jar", toFile.toPath());
   }
+
+  @Test
+  public void test_jar_downloader_resumable() throws Exception {
+    Jars.ScannerFileDownloader downloader = new Jars.ScannerFileDownloader(connection);
+    FileCache.PartialDownload partialDownload = mock(FileCache.PartialDownload.class);
+    downloader.download("squid.jar", partialDownload);
+    verify(connection).downloadFile("/batch/file?name=squid.jar", partialDownload);
+  }
 }
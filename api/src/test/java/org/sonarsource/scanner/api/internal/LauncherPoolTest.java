@@ -0,0 +1,146 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.sonarsource.scanner.api.internal.LauncherPool.PooledLauncher;
+import org.sonarsource.scanner.api.internal.batch.IsolatedLauncher;
+import org.sonarsource.scanner.api.internal.batch.LogOutput;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class LauncherPoolTest {
+
+  private LauncherPool pool = new LauncherPool();
+
+  @Test
+  public void lease_returns_null_when_empty() {
+    assertThat(pool.lease(key("http://localhost:9000"))).isNull();
+  }
+
+  @Test
+  public void lease_released_launcher_with_same_key() {
+    IsolatedLauncher launcher = mock(IsolatedLauncher.class);
+    PooledLauncher pooled = PooledLauncher.start(key("http://localhost:9000"), launcher, new Properties(), null);
+    pool.release(pooled);
+
+    assertThat(pool.lease(key("http://other:9000"))).isNull();
+    assertThat(pool.lease(key("http://localhost:9000"))).isSameAs(pooled);
+    assertThat(pool.idleCount()).isZero();
+  }
+
+  @Test
+  public void key_depends_on_classloader_rules() {
+    Properties props = new Properties();
+    assertThat(LauncherPool.key(props, Collections.singleton("a."), Collections.<String>emptySet()))
+      .isEqualTo(LauncherPool.key(props, Collections.singleton("a."), Collections.<String>emptySet()))
+      .isNotEqualTo(LauncherPool.key(props, Collections.<String>emptySet(), Collections.singleton("a.")));
+  }
+
+  @Test
+  public void stop_oldest_launchers_when_full() {
+    pool.setMaxSize(1);
+    IsolatedLauncher first = mock(IsolatedLauncher.class);
+    IsolatedLauncher second = mock(IsolatedLauncher.class);
+    pool.release(PooledLauncher.start(key("http://first"), first, new Properties(), null));
+    pool.release(PooledLauncher.start(key("http://second"), second, new Properties(), null));
+
+    verify(first).stop();
+    assertThat(pool.idleCount()).isEqualTo(1);
+    assertThat(pool.lease(key("http://second")).launcher()).isSameAs(second);
+  }
+
+  @Test
+  public void stop_idle_launchers() {
+    pool.setMaxIdleTime(0, TimeUnit.MILLISECONDS);
+    IsolatedLauncher launcher = mock(IsolatedLauncher.class);
+    pool.release(PooledLauncher.start(key("http://localhost:9000"), launcher, new Properties(), null));
+
+    verify(launcher).stop();
+    assertThat(pool.idleCount()).isZero();
+  }
+
+  @Test
+  public void redirect_logs_to_current_user() {
+    LogOutputCaptor launcher = new LogOutputCaptor();
+    PooledLauncher pooled = PooledLauncher.start(key("http://localhost:9000"), launcher, new Properties(), null);
+    LogOutput first = mock(LogOutput.class);
+    LogOutput second = mock(LogOutput.class);
+
+    pooled.setLogOutput(first);
+    launcher.logOutput.log("msg1", LogOutput.Level.INFO);
+    pool.release(pooled);
+    launcher.logOutput.log("dropped", LogOutput.Level.INFO);
+    pool.lease(key("http://localhost:9000")).setLogOutput(second);
+    launcher.logOutput.log("msg2", LogOutput.Level.INFO);
+
+    verify(first).log("msg1", LogOutput.Level.INFO);
+    verify(second).log("msg2", LogOutput.Level.INFO);
+  }
+
+  @Test
+  public void clear_stops_idle_launchers() {
+    IsolatedLauncher launcher = mock(IsolatedLauncher.class);
+    pool.release(PooledLauncher.start(key("http://localhost:9000"), launcher, new Properties(), null));
+
+    pool.clear();
+
+    verify(launcher).stop();
+    assertThat(pool.idleCount()).isZero();
+  }
+
+  private static LauncherPool.Key key(String url) {
+    Properties props = new Properties();
+    props.setProperty("sonar.host.url", url);
+    return LauncherPool.key(props, Collections.<String>emptySet(), Collections.<String>emptySet());
+  }
+
+  private static class LogOutputCaptor implements IsolatedLauncher {
+    LogOutput logOutput;
+
+    @Override
+    public void start(Properties properties, LogOutput logOutput) {
+      this.logOutput = logOutput;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void execute(Properties properties) {
+    }
+
+    @Override
+    public void executeOldVersion(Properties properties, List<Object> extensions) {
+    }
+
+    @Override
+    public String getVersion() {
+      return "5.2";
+    }
+  }
+}
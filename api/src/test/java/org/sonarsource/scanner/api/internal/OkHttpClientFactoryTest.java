@@ -40,6 +40,33 @@ public class OkHttpClientFactoryTest {
     assertThat(underTest.sslSocketFactory()).isInstanceOf(SSLSocketFactory.getDefault().getClass());
   }
 
+  @Test
+  public void share_client_with_same_configuration() {
+    Logger logger = mock(Logger.class);
+    OkHttpClient client = OkHttpClientFactory.create(logger);
+
+    assertThat(OkHttpClientFactory.create(logger)).isSameAs(client);
+  }
+
+  @Test
+  public void create_new_client_when_configuration_changes() {
+    Logger logger = mock(Logger.class);
+    OkHttpClient client = OkHttpClientFactory.create(logger);
+    String previous = System.getProperty("http.proxyUser");
+    System.setProperty("http.proxyUser", "scanner");
+    try {
+      OkHttpClient other = OkHttpClientFactory.create(logger);
+      assertThat(other).isNotSameAs(client);
+      assertThat(other.connectionPool()).isNotSameAs(client.connectionPool());
+    } finally {
+      if (previous == null) {
+        System.clearProperty("http.proxyUser");
+      } else {
+        System.setProperty("http.proxyUser", previous);
+      }
+    }
+  }
+
   private void assertTlsAndClearTextSpecifications(OkHttpClient client) {
     List<ConnectionSpec> connectionSpecs = client.connectionSpecs();
     assertThat(connectionSpecs).hasSize(2);
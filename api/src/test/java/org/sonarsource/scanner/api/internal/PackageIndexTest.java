@@ -0,0 +1,112 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonarsource.scanner.api.internal.cache.Logger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PackageIndexTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void index_jars_by_package() throws IOException {
+    File jar1 = createJar("jar1.jar", null, "org/sonar/A.class", "org/sonar/B.class", "META-INF/");
+    File jar2 = createJar("jar2.jar", null, "org/sonar/C.class", "com/foo/D.class", "root.txt");
+
+    PackageIndex index = PackageIndex.build(Arrays.asList(jar1, jar2));
+
+    assertThat(index.jarsOf("org/sonar/A.class")).containsExactly(0, 1);
+    assertThat(index.jarsOf("com/foo/D.class")).containsExactly(1);
+    assertThat(index.jarsOf("root.txt")).containsExactly(1);
+    assertThat(index.jarsOf("META-INF/")).containsExactly(0);
+    assertThat(index.jarsOf("META-INF")).containsExactly(0, 1);
+    assertThat(index.jarsOf("net/bar/E.class")).isEmpty();
+  }
+
+  @Test
+  public void write_and_use_sidecar() throws IOException {
+    File jar = createJar("jar.jar", null, "org/sonar/A.class");
+
+    PackageIndex.writeSidecar(jar, mock(Logger.class));
+
+    File sidecar = new File(temp.getRoot(), "jar.jar.packages");
+    assertThat(Files.readAllLines(sidecar.toPath(), StandardCharsets.UTF_8)).containsOnly("org/sonar");
+
+    // sidecar is used instead of reading the jar
+    Files.write(sidecar.toPath(), "com/foo".getBytes(StandardCharsets.UTF_8));
+    PackageIndex index = PackageIndex.build(Arrays.asList(jar));
+    assertThat(index.jarsOf("com/foo/B.class")).containsExactly(0);
+  }
+
+  @Test
+  public void ignore_sidecar_older_than_jar() throws IOException {
+    File jar = createJar("jar.jar", null, "org/sonar/A.class");
+    File sidecar = new File(temp.getRoot(), "jar.jar.packages");
+    Files.write(sidecar.toPath(), "com/foo".getBytes(StandardCharsets.UTF_8));
+    sidecar.setLastModified(jar.lastModified() - 10_000L);
+
+    PackageIndex index = PackageIndex.build(Arrays.asList(jar));
+
+    assertThat(index.jarsOf("org/sonar/A.class")).containsExactly(0);
+    assertThat(index.jarsOf("com/foo/B.class")).isEmpty();
+  }
+
+  @Test
+  public void no_index_if_jar_has_class_path_in_manifest() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "other.jar");
+    File jar = createJar("jar.jar", manifest, "org/sonar/A.class");
+
+    assertThat(PackageIndex.build(Arrays.asList(jar))).isNull();
+  }
+
+  @Test
+  public void no_index_if_jar_can_not_be_read() {
+    assertThat(PackageIndex.build(Arrays.asList(new File(temp.getRoot(), "missing.jar")))).isNull();
+  }
+
+  private File createJar(String name, Manifest manifest, String... entries) throws IOException {
+    File jar = new File(temp.getRoot(), name);
+    try (JarOutputStream out = manifest != null ? new JarOutputStream(new FileOutputStream(jar), manifest) : new JarOutputStream(new FileOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new JarEntry(entry));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
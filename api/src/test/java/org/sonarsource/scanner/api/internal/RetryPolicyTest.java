@@ -0,0 +1,110 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+
+  private List<Long> sleeps = new ArrayList<>();
+
+  @Test
+  public void full_jitter_is_bounded_by_exponential_backoff() {
+    RetryPolicy policy = new RetryPolicy(10, 100L, 1_000L, new Random(42L), sleeps::add);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.delayMillis(1, null)).isBetween(0L, 100L);
+      assertThat(policy.delayMillis(2, null)).isBetween(0L, 200L);
+      assertThat(policy.delayMillis(3, null)).isBetween(0L, 400L);
+      assertThat(policy.delayMillis(8, null)).isBetween(0L, 1_000L);
+      assertThat(policy.delayMillis(100, null)).isBetween(0L, 1_000L);
+    }
+  }
+
+  @Test
+  public void honor_retry_after_in_seconds() {
+    RetryPolicy policy = new RetryPolicy(3, 100L, 10_000L, new Random(42L), sleeps::add);
+
+    assertThat(policy.delayMillis(1, "2")).isEqualTo(2_000L);
+    assertThat(policy.delayMillis(1, "60")).isEqualTo(10_000L);
+    assertThat(policy.delayMillis(1, "invalid")).isBetween(0L, 100L);
+  }
+
+  @Test
+  public void honor_retry_after_as_date() {
+    RetryPolicy policy = new RetryPolicy(3, 100L, 10_000L, new Random(42L), sleeps::add);
+    String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+
+    assertThat(policy.delayMillis(1, date)).isBetween(3_000L, 5_000L);
+  }
+
+  @Test
+  public void count_retries() throws Exception {
+    RetryPolicy policy = new RetryPolicy(3, 100L, 10_000L, new Random(42L), sleeps::add);
+
+    assertThat(policy.canRetry(1)).isTrue();
+    assertThat(policy.canRetry(2)).isTrue();
+    assertThat(policy.canRetry(3)).isFalse();
+    policy.pause(10L);
+    policy.pause(20L);
+
+    assertThat(policy.retries()).isEqualTo(2);
+    assertThat(policy.waitedMillis()).isEqualTo(30L);
+    assertThat(sleeps).containsExactly(10L, 20L);
+  }
+
+  @Test
+  public void only_retry_transient_errors() {
+    assertThat(RetryPolicy.isRetryable(429)).isTrue();
+    assertThat(RetryPolicy.isRetryable(502)).isTrue();
+    assertThat(RetryPolicy.isRetryable(503)).isTrue();
+    assertThat(RetryPolicy.isRetryable(504)).isTrue();
+    assertThat(RetryPolicy.isRetryable(200)).isFalse();
+    assertThat(RetryPolicy.isRetryable(401)).isFalse();
+    assertThat(RetryPolicy.isRetryable(404)).isFalse();
+    assertThat(RetryPolicy.isRetryable(500)).isFalse();
+  }
+
+  @Test
+  public void configure_with_properties() {
+    Properties props = new Properties();
+    props.setProperty("sonar.scanner.httpMaxAttempts", "5");
+
+    assertThat(RetryPolicy.create(props).maxAttempts()).isEqualTo(5);
+    assertThat(RetryPolicy.create(new Properties()).maxAttempts()).isEqualTo(RetryPolicy.DEFAULT_MAX_ATTEMPTS);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_on_invalid_property() {
+    Properties props = new Properties();
+    props.setProperty("sonar.scanner.httpRetryBaseDelayMs", "fast");
+
+    RetryPolicy.create(props);
+  }
+}
@@ -21,18 +21,29 @@ package org.sonarsource.scanner.api.internal;
 
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Random;
+import javax.annotation.Nullable;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonarsource.scanner.api.internal.ServerConnection;
+import org.sonarsource.scanner.api.internal.cache.FileCache;
 import org.sonarsource.scanner.api.internal.cache.Logger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 public class ServerConnectionTest {
@@ -77,6 +88,18 @@ public class ServerConnectionTest {
     assertThat(new String(Files.readAllBytes(toFile), StandardCharsets.UTF_8)).isEqualTo(HELLO_WORLD);
   }
 
+  @Test
+  public void downloadFile_replaces_previous_content() throws Exception {
+    Path toFile = temp.newFile().toPath();
+    Files.write(toFile, "previous content, longer than the new one".getBytes(StandardCharsets.UTF_8));
+    answer(HELLO_WORLD);
+
+    ServerConnection underTest = create(false, false);
+    underTest.downloadFile("/batch/index.txt", toFile);
+
+    assertThat(new String(Files.readAllBytes(toFile), StandardCharsets.UTF_8)).isEqualTo(HELLO_WORLD);
+  }
+
   @Test
   public void should_support_server_url_without_trailing_slash() throws Exception {
     Properties props = new Properties();
@@ -99,6 +122,223 @@ public class ServerConnectionTest {
     assertThat(content).isEqualTo(HELLO_WORLD);
   }
 
+  @Test
+  public void should_send_validators_and_return_null_if_not_modified() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setResponseCode(304));
+
+    ServerConnection.CacheableContent content = connection.downloadStringIfModified("/batch/index.txt", "\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT");
+
+    assertThat(content).isNull();
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("If-None-Match")).isEqualTo("\"abc\"");
+    assertThat(request.getHeader("If-Modified-Since")).isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+  }
+
+  @Test
+  public void should_return_content_and_validators_if_modified() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setBody(HELLO_WORLD)
+      .setHeader("ETag", "\"def\"")
+      .setHeader("Last-Modified", "Thu, 22 Oct 2015 07:28:00 GMT"));
+
+    ServerConnection.CacheableContent content = connection.downloadStringIfModified("/batch/index.txt", null, null);
+
+    assertThat(content.content()).isEqualTo(HELLO_WORLD);
+    assertThat(content.etag()).isEqualTo("\"def\"");
+    assertThat(content.lastModified()).isEqualTo("Thu, 22 Oct 2015 07:28:00 GMT");
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("If-None-Match")).isNull();
+    assertThat(request.getHeader("If-Modified-Since")).isNull();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void should_fail_on_unexpected_status_of_conditional_download() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setResponseCode(500));
+
+    connection.downloadStringIfModified("/batch/index.txt", "\"abc\"", null);
+  }
+
+  @Test
+  public void should_resume_download_with_range() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setResponseCode(206)
+      .setHeader("Content-Range", "bytes 7-12/13")
+      .setHeader("ETag", "\"abc\"")
+      .setBody("world!"));
+    FakePartialDownload partial = new FakePartialDownload("hello, ", "\"abc\"");
+
+    connection.downloadFile("/batch/file?name=foo.jar", partial);
+
+    assertThat(partial.content()).isEqualTo(HELLO_WORLD);
+    assertThat(partial.validator()).isEqualTo("\"abc\"");
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Range")).isEqualTo("bytes=7-");
+    assertThat(request.getHeader("If-Range")).isEqualTo("\"abc\"");
+  }
+
+  @Test
+  public void should_restart_download_if_content_changed() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setHeader("ETag", "\"def\"").setBody(HELLO_WORLD));
+    FakePartialDownload partial = new FakePartialDownload("hi, ", "\"abc\"");
+
+    connection.downloadFile("/batch/file?name=foo.jar", partial);
+
+    assertThat(partial.content()).isEqualTo(HELLO_WORLD);
+    assertThat(partial.validator()).isEqualTo("\"def\"");
+  }
+
+  @Test
+  public void should_restart_download_if_range_not_satisfiable() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setResponseCode(416));
+    server.enqueue(new MockResponse().setBody(HELLO_WORLD));
+    FakePartialDownload partial = new FakePartialDownload("hello, world! and more", "\"abc\"");
+
+    connection.downloadFile("/batch/file?name=foo.jar", partial);
+
+    assertThat(partial.content()).isEqualTo(HELLO_WORLD);
+    server.takeRequest();
+    assertThat(server.takeRequest().getHeader("Range")).isNull();
+  }
+
+  @Test
+  public void should_not_resume_without_strong_validator() throws Exception {
+    ServerConnection connection = create(false, false);
+    server.enqueue(new MockResponse().setHeader("ETag", "W/\"abc\"").setBody(HELLO_WORLD));
+    FakePartialDownload partial = new FakePartialDownload("", null);
+
+    connection.downloadFile("/batch/file?name=foo.jar", partial);
+
+    assertThat(partial.content()).isEqualTo(HELLO_WORLD);
+    assertThat(partial.validator()).isNull();
+    assertThat(server.takeRequest().getHeader("Range")).isNull();
+  }
+
+  @Test
+  public void should_retry_when_server_is_unavailable() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    ServerConnection connection = new ServerConnection(serverUrl, "user-agent", new RetryPolicy(3, 100L, 1_000L, new Random(42L), sleeps::add), logger);
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+    answer(HELLO_WORLD);
+
+    assertThat(connection.downloadString("/batch/index.txt")).isEqualTo(HELLO_WORLD);
+
+    assertThat(server.getRequestCount()).isEqualTo(3);
+    assertThat(sleeps).hasSize(2);
+    assertThat(sleeps.get(0)).isBetween(0L, 100L);
+    assertThat(sleeps.get(1)).isEqualTo(1_000L);
+    assertThat(connection.retryPolicy().retries()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_fail_when_all_attempts_fail() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    ServerConnection connection = new ServerConnection(serverUrl, "user-agent", new RetryPolicy(2, 100L, 1_000L, new Random(42L), sleeps::add), logger);
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(503));
+
+    try {
+      connection.downloadString("/batch/index.txt");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("[503]");
+    }
+    assertThat(server.getRequestCount()).isEqualTo(2);
+    assertThat(sleeps).hasSize(1);
+  }
+
+  @Test
+  public void should_not_retry_client_errors() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    ServerConnection connection = new ServerConnection(serverUrl, "user-agent", new RetryPolicy(3, 100L, 1_000L, new Random(42L), sleeps::add), logger);
+    server.enqueue(new MockResponse().setResponseCode(404));
+
+    try {
+      connection.downloadString("/batch/index.txt");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("[404]");
+    }
+    assertThat(sleeps).isEmpty();
+  }
+
+  @Test
+  public void should_resume_download_after_connection_reset() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    ServerConnection connection = new ServerConnection(serverUrl, "user-agent", new RetryPolicy(3, 100L, 1_000L, new Random(42L), sleeps::add), logger);
+    server.enqueue(new MockResponse().setHeader("ETag", "\"abc\"").setBody(HELLO_WORLD)
+      .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+    server.enqueue(new MockResponse().setResponseCode(206)
+      .setHeader("Content-Range", "bytes 0-12/13")
+      .setHeader("ETag", "\"abc\"")
+      .setBody(HELLO_WORLD));
+    FakePartialDownload partial = new FakePartialDownload("", null);
+
+    connection.downloadFile("/batch/file?name=foo.jar", partial);
+
+    assertThat(partial.content()).isEqualTo(HELLO_WORLD);
+    assertThat(sleeps).hasSize(1);
+    assertThat(server.getRequestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_share_attempts_between_requests_and_resumed_transfers() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    ServerConnection connection = new ServerConnection(serverUrl, "user-agent", new RetryPolicy(3, 100L, 1_000L, new Random(42L), sleeps::add), logger);
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setHeader("ETag", "\"abc\"").setBody(HELLO_WORLD)
+      .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    answer(HELLO_WORLD);
+    FakePartialDownload partial = new FakePartialDownload("", null);
+
+    try {
+      connection.downloadFile("/batch/file?name=foo.jar", partial);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("[503]");
+    }
+    assertThat(server.getRequestCount()).isEqualTo(3);
+    assertThat(sleeps).hasSize(2);
+  }
+
+  private static class FakePartialDownload implements FileCache.PartialDownload {
+    private ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private String validator;
+
+    FakePartialDownload(String content, @Nullable String validator) throws IOException {
+      this.content.write(content.getBytes(StandardCharsets.UTF_8));
+      this.validator = validator;
+    }
+
+    @Override
+    public long length() {
+      return content.size();
+    }
+
+    @Override
+    public String validator() {
+      return validator;
+    }
+
+    @Override
+    public OutputStream open(boolean resume, @Nullable String validator) {
+      if (!resume) {
+        content.reset();
+      }
+      this.validator = validator;
+      return content;
+    }
+
+    String content() {
+      return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
   private ServerConnection create(boolean enableCache, boolean preferCache) {
     return new ServerConnection(serverUrl, "user-agent", logger);
   }
@@ -21,11 +21,14 @@ package org.sonarsource.scanner.api.internal;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -60,10 +63,74 @@ public class TempCleaningTest {
     assertThat(oldBatch).exists();
     assertThat(youngBatch).exists();
     assertThat(doNotDelete).exists();
-    new TempCleaning(dir, mock(Logger.class)).clean();
+    new TempCleaning(dir, mock(Logger.class)).clean(TempCleaning.DEFAULT_TIME_BUDGET_MILLISECONDS);
 
     assertThat(oldBatch).doesNotExist();
     assertThat(youngBatch).exists();
     assertThat(doNotDelete).exists();
   }
+
+  @Test
+  public void should_clean_batch_jars_extracted_by_previous_versions() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    Path oldBatch = dir.resolve("sonar-scanner-api-batch4567.jar");
+    Files.write(oldBatch, "foo".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(oldBatch, FileTime.fromMillis(System.currentTimeMillis() - 3 * TempCleaning.ONE_DAY_IN_MILLISECONDS));
+
+    new TempCleaning(dir, mock(Logger.class)).clean(TempCleaning.DEFAULT_TIME_BUDGET_MILLISECONDS);
+
+    assertThat(oldBatch).doesNotExist();
+  }
+
+  @Test
+  public void should_clean_in_background_at_most_once_per_interval() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    Path oldBatch = dir.resolve("sonar-runner-batch656.jar");
+    Files.write(oldBatch, "foo".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(oldBatch, FileTime.fromMillis(System.currentTimeMillis() - 3 * TempCleaning.ONE_DAY_IN_MILLISECONDS));
+    TempCleaning cleaning = new TempCleaning(dir, mock(Logger.class));
+
+    Future<?> task = cleaning.cleanInBackground(TempCleaning.DEFAULT_TIME_BUDGET_MILLISECONDS);
+    assertThat(task).isNotNull();
+    task.get(10, TimeUnit.SECONDS);
+
+    assertThat(oldBatch).doesNotExist();
+    assertThat(dir.resolve(TempCleaning.MARKER_FILENAME)).exists();
+    assertThat(cleaning.cleanInBackground(TempCleaning.DEFAULT_TIME_BUDGET_MILLISECONDS)).isNull();
+  }
+
+  @Test
+  public void should_clean_again_when_interval_elapsed() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    Path marker = dir.resolve(TempCleaning.MARKER_FILENAME);
+    Files.write(marker, new byte[0]);
+    Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis() - 2 * TempCleaning.CLEANING_INTERVAL_MILLISECONDS));
+
+    assertThat(new TempCleaning(dir, mock(Logger.class)).acquireInterval()).isTrue();
+  }
+
+  @Test
+  public void should_stop_when_time_budget_is_exhausted() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    Path oldBatch = dir.resolve("sonar-runner-batch656.jar");
+    Files.write(oldBatch, "foo".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(oldBatch, FileTime.fromMillis(System.currentTimeMillis() - 3 * TempCleaning.ONE_DAY_IN_MILLISECONDS));
+
+    new TempCleaning(dir, mock(Logger.class)).clean(-1L);
+
+    assertThat(oldBatch).exists();
+  }
+
+  @Test
+  public void should_stop_while_listing_other_files() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    for (int i = 0; i < 100; i++) {
+      Files.write(dir.resolve("other" + i + ".txt"), new byte[0]);
+    }
+    Logger logger = mock(Logger.class);
+
+    new TempCleaning(dir, logger).clean(-1L);
+
+    verify(logger).debug("Temp cleaning stopped, time budget is exhausted");
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class AccessJournalTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+  private AccessJournal journal;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(temp.getRoot(), "journal");
+    journal = new AccessJournal(file, temp.newFolder(), mock(Logger.class));
+  }
+
+  @Test
+  public void read_empty_journal() {
+    assertThat(journal.read()).isEmpty();
+  }
+
+  @Test
+  public void record_each_entry_once() throws IOException {
+    journal.record("ABCDE");
+    journal.record("ABCDE");
+    journal.record("FGHIJ");
+
+    assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)).hasSize(2);
+    assertThat(journal.read()).containsOnlyKeys("ABCDE", "FGHIJ");
+  }
+
+  @Test
+  public void keep_last_access_and_ignore_truncated_lines() throws IOException {
+    Files.write(file.toPath(), "ABCDE 10\nABCDE 30\nABCDE 20\nFGHIJ\nKLMNO 1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE);
+
+    assertThat(journal.read()).containsEntry("ABCDE", 30L).containsEntry("KLMNO", 1L).doesNotContainKey("FGHIJ");
+  }
+
+  @Test
+  public void compact_journal_above_max_size() throws IOException {
+    AccessJournal small = new AccessJournal(file, temp.newFolder(), 100L, mock(Logger.class));
+    Files.createDirectories(new File(temp.getRoot(), "ABCDE").toPath());
+    Files.createDirectories(new File(temp.getRoot(), "FGHIJ").toPath());
+    StringBuilder lines = new StringBuilder();
+    for (int i = 1; i <= 10; i++) {
+      lines.append("ABCDE ").append(i).append("\nEVICTED ").append(i).append("\n");
+    }
+    Files.write(file.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+
+    small.record("FGHIJ");
+
+    assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)).hasSize(2);
+    assertThat(small.read()).containsOnlyKeys("ABCDE", "FGHIJ").containsEntry("ABCDE", 10L);
+  }
+
+  @Test
+  public void rewrite_journal() {
+    journal.record("ABCDE");
+    journal.rewrite(Collections.singletonMap("FGHIJ", 42L));
+
+    assertThat(journal.read()).containsOnlyKeys("FGHIJ").containsEntry("FGHIJ", 42L);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class CacheEvictionTest {
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File dir;
+  private File tmpDir;
+  private AccessJournal journal;
+  private CacheEviction eviction;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = temp.newFolder();
+    tmpDir = new File(dir, "_tmp");
+    Files.createDirectories(tmpDir.toPath());
+    journal = new AccessJournal(new File(dir, "_access.journal"), tmpDir, mock(Logger.class));
+    eviction = new CacheEviction(dir, tmpDir, journal, new File(dir, "_locks"), mock(Logger.class));
+  }
+
+  @Test
+  public void evict_least_recently_used_entries_above_max_size() throws IOException {
+    long now = System.currentTimeMillis();
+    addEntry("OLDEST", 100, now - 3 * DAY);
+    addEntry("OLD", 100, now - 2 * DAY);
+    addEntry("RECENT", 100, now - DAY);
+
+    long reclaimed = eviction.evict(150, -1);
+
+    assertThat(reclaimed).isEqualTo(200);
+    assertThat(new File(dir, "OLDEST")).doesNotExist();
+    assertThat(new File(dir, "OLD")).doesNotExist();
+    assertThat(new File(dir, "RECENT")).exists();
+    assertThat(journal.read()).containsOnlyKeys("RECENT");
+  }
+
+  @Test
+  public void evict_entries_older_than_max_age() throws IOException {
+    long now = System.currentTimeMillis();
+    addEntry("OLD", 100, now - 10 * DAY);
+    addEntry("RECENT", 100, now - DAY);
+
+    long reclaimed = eviction.evict(-1, 5 * DAY);
+
+    assertThat(reclaimed).isEqualTo(100);
+    assertThat(new File(dir, "OLD")).doesNotExist();
+    assertThat(new File(dir, "RECENT")).exists();
+  }
+
+  @Test
+  public void never_evict_entries_used_recently() throws IOException {
+    addEntry("IN_USE", 100, System.currentTimeMillis());
+
+    assertThat(eviction.evict(0, 0)).isEqualTo(0);
+    assertThat(new File(dir, "IN_USE")).exists();
+  }
+
+  @Test
+  public void ignore_internal_directories() throws IOException {
+    Files.createDirectories(new File(dir, "_metadata").toPath());
+
+    eviction.evict(0, 0);
+
+    assertThat(tmpDir).exists();
+    assertThat(new File(dir, "_metadata")).exists();
+  }
+
+  @Test
+  public void use_directory_date_if_access_was_not_recorded() throws IOException {
+    File hashDir = new File(dir, "UNKNOWN");
+    Files.createDirectories(hashDir.toPath());
+    Files.write(new File(hashDir, "foo.jar").toPath(), new byte[10]);
+    hashDir.setLastModified(System.currentTimeMillis() - 10 * DAY);
+
+    assertThat(eviction.evict(-1, 5 * DAY)).isEqualTo(10);
+    assertThat(hashDir).doesNotExist();
+  }
+
+  @Test
+  public void remove_locks_of_evicted_entries() throws IOException {
+    long now = System.currentTimeMillis();
+    addEntry("OLD", 100, now - 10 * DAY);
+    addEntry("RECENT", 100, now - DAY);
+    File locksDir = new File(dir, "_locks");
+    Files.createDirectories(locksDir.toPath());
+    File oldLock = new File(locksDir, "OLD.lock");
+    File recentLock = new File(locksDir, "RECENT.lock");
+    File orphanLock = new File(locksDir, "FAILED_DOWNLOAD.lock");
+    Files.write(oldLock.toPath(), new byte[0]);
+    Files.write(recentLock.toPath(), new byte[0]);
+    Files.write(orphanLock.toPath(), new byte[0]);
+
+    eviction.evict(-1, 5 * DAY);
+
+    assertThat(oldLock).doesNotExist();
+    assertThat(orphanLock).doesNotExist();
+    assertThat(recentLock).exists();
+  }
+
+  private void addEntry(String hash, int size, long lastAccess) throws IOException {
+    File hashDir = new File(dir, hash);
+    Files.createDirectories(hashDir.toPath());
+    Files.write(new File(hashDir, "foo.jar").toPath(), new byte[size]);
+    Map<String, Long> accesses = journal.read();
+    accesses.put(hash, lastAccess);
+    journal.rewrite(accesses);
+  }
+}
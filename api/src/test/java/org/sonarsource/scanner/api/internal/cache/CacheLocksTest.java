@@ -0,0 +1,137 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class CacheLocksTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void actions_on_same_entry_are_not_concurrent() throws Exception {
+    CacheLocks locks = new CacheLocks(temp.newFolder(), mock(Logger.class));
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Runnable action = () -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      sleep(50);
+      running.decrementAndGet();
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    Future<?>[] futures = new Future<?>[4];
+    for (int i = 0; i < futures.length; i++) {
+      futures[i] = executor.submit(() -> locks.withLock("ABCDE", action));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    assertThat(maxRunning.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void run_unlocked_if_lock_file_cannot_be_created() throws Exception {
+    File locksDir = temp.newFile();
+    CacheLocks locks = new CacheLocks(locksDir, mock(Logger.class));
+    AtomicBoolean locked = new AtomicBoolean(true);
+
+    locks.withLock("ABCDE", locked::set);
+
+    assertThat(locked.get()).isFalse();
+  }
+
+  @Test
+  public void mark_deleted_lock_file_for_processes_having_opened_it() throws Exception {
+    File locksDir = temp.newFolder();
+    File lockFile = new File(locksDir, "ABCDE.lock");
+    CacheLocks locks = new CacheLocks(locksDir, mock(Logger.class));
+    locks.withLock("ABCDE", () -> {
+    });
+
+    try (RandomAccessFile opened = new RandomAccessFile(lockFile, "rw")) {
+      assertThat(CacheLocks.deleteIfUnlocked(lockFile)).isTrue();
+      assertThat(lockFile).doesNotExist();
+      assertThat(opened.length()).isPositive();
+    }
+
+    AtomicBoolean locked = new AtomicBoolean();
+    locks.withLock("ABCDE", locked::set);
+    assertThat(locked.get()).isTrue();
+    assertThat(lockFile.length()).isZero();
+  }
+
+  @Test
+  public void do_not_delete_held_lock_file() throws Exception {
+    File locksDir = temp.newFolder();
+    File lockFile = new File(locksDir, "ABCDE.lock");
+    CacheLocks locks = new CacheLocks(locksDir, mock(Logger.class));
+    AtomicBoolean deleted = new AtomicBoolean(true);
+
+    locks.withLock("ABCDE", () -> deleted.set(CacheLocks.deleteIfUnlocked(lockFile)));
+
+    assertThat(deleted.get()).isFalse();
+    assertThat(lockFile).exists();
+    assertThat(lockFile.length()).isZero();
+  }
+
+  @Test
+  public void lock_is_released_on_failure() throws Exception {
+    File locksDir = temp.newFolder();
+    CacheLocks locks = new CacheLocks(locksDir, mock(Logger.class));
+    try {
+      locks.withLock("ABCDE", () -> {
+        throw new IllegalStateException("download failed");
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("download failed");
+    }
+
+    AtomicInteger calls = new AtomicInteger();
+    locks.withLock("ABCDE", calls::incrementAndGet);
+    assertThat(calls.get()).isEqualTo(1);
+    assertThat(new File(locksDir, "ABCDE.lock")).exists();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -19,10 +19,21 @@
  */
 package org.sonarsource.scanner.api.internal.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -30,8 +41,12 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class FileCacheTest {
@@ -41,6 +56,31 @@ public class FileCacheTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Test
+  public void record_accesses() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    write(new File(new File(cache.getDir(), "ABCDE"), "sonar-foo-plugin-1.5.jar"), "body");
+
+    cache.get("sonar-foo-plugin-1.5.jar", "ABCDE");
+
+    assertThat(journalOf(cache).read()).containsOnlyKeys("ABCDE");
+  }
+
+  @Test
+  public void record_access_of_files_in_use() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    File cachedFile = new File(new File(cache.getDir(), "ABCDE"), "sonar-foo-plugin-1.5.jar");
+    write(cachedFile, "body");
+
+    cache.recordAccess(Arrays.asList(cachedFile, tempFolder.newFile("not-cached.jar")));
+
+    assertThat(journalOf(cache).read()).containsOnlyKeys("ABCDE");
+  }
+
+  private static AccessJournal journalOf(FileCache cache) {
+    return new AccessJournal(new File(cache.getDir(), "_access.journal"), new File(cache.getDir(), "_tmp"), mock(Logger.class));
+  }
+
   @Test
   public void not_in_cache() throws IOException {
     FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
@@ -93,6 +133,17 @@ public class FileCacheTest {
     cache.get("sonar-foo-plugin-1.5.jar", "ABCDE", downloader);
   }
 
+  @Test
+  public void download_corrupted_file_resumable() throws IOException {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("INVALID HASH");
+
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+
+    cache.get("sonar-foo-plugin-1.5.jar", hash, new BodyDownloader("corrupted body"));
+  }
+
   @Test
   public void concurrent_download() throws IOException {
     FileHashes hashes = mock(FileHashes.class);
@@ -117,6 +168,262 @@ public class FileCacheTest {
     assertThat(read(cachedFile)).contains("downloaded by");
   }
 
+  @Test
+  public void download_only_once_when_requested_concurrently() throws Exception {
+    FileHashes hashes = mock(FileHashes.class);
+    when(hashes.of(any(File.class))).thenReturn("ABCDE");
+    final FileCache cache = new FileCache(tempFolder.newFolder(), hashes, mock(Logger.class));
+    AtomicInteger downloads = new AtomicInteger();
+    FileCache.Downloader downloader = (filename, toFile) -> {
+      downloads.incrementAndGet();
+      sleep(50);
+      write(toFile, "body");
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<File>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(executor.submit(() -> cache.get("sonar-foo-plugin-1.5.jar", "ABCDE", downloader)));
+    }
+    for (Future<File> future : futures) {
+      assertThat(read(future.get(10, TimeUnit.SECONDS))).isEqualTo("body");
+    }
+    executor.shutdown();
+
+    assertThat(downloads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void verify_cached_file_only_when_its_stats_change() throws IOException {
+    FileHashes hashes = mock(FileHashes.class);
+    when(hashes.of(any(File.class))).thenReturn("ABCDE");
+    FileCache cache = new FileCache(tempFolder.newFolder(), hashes, true, mock(Logger.class));
+    File cachedFile = new File(new File(cache.getDir(), "ABCDE"), "sonar-foo-plugin-1.5.jar");
+    write(cachedFile, "body");
+
+    assertThat(cache.get("sonar-foo-plugin-1.5.jar", "ABCDE")).isEqualTo(cachedFile);
+    assertThat(cache.get("sonar-foo-plugin-1.5.jar", "ABCDE")).isEqualTo(cachedFile);
+    verify(hashes, times(1)).of(cachedFile);
+
+    write(cachedFile, "other body");
+    assertThat(cache.get("sonar-foo-plugin-1.5.jar", "ABCDE")).isEqualTo(cachedFile);
+    verify(hashes, times(2)).of(cachedFile);
+  }
+
+  @Test
+  public void remove_corrupted_file_from_cache() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), true, mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+    File cachedFile = new File(new File(cache.getDir(), hash), "sonar-foo-plugin-1.5.jar");
+    write(cachedFile, "bo");
+
+    assertThat(cache.get("sonar-foo-plugin-1.5.jar", hash)).isNull();
+    assertThat(cachedFile).doesNotExist();
+  }
+
+  @Test
+  public void download_again_corrupted_file() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), true, mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+    File cachedFile = new File(new File(cache.getDir(), hash), "sonar-foo-plugin-1.5.jar");
+    write(cachedFile, "bo");
+
+    File file = cache.get("sonar-foo-plugin-1.5.jar", hash, new BodyDownloader("body"));
+
+    assertThat(read(file)).isEqualTo("body");
+    assertThat(new File(file.getParentFile(), "sonar-foo-plugin-1.5.jar.verified")).exists();
+  }
+
+  @Test
+  public void do_not_verify_cached_file_by_default() throws IOException {
+    FileHashes hashes = mock(FileHashes.class);
+    FileCache cache = new FileCache(tempFolder.newFolder(), hashes, mock(Logger.class));
+    File cachedFile = new File(new File(cache.getDir(), "ABCDE"), "sonar-foo-plugin-1.5.jar");
+    write(cachedFile, "body");
+
+    assertThat(cache.get("sonar-foo-plugin-1.5.jar", "ABCDE")).isEqualTo(cachedFile);
+    verify(hashes, never()).of(any(File.class));
+  }
+
+  @Test
+  public void store_and_load_metadata() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    assertThat(cache.getMetadata("http://localhost:9000/batch/index")).isNull();
+
+    Properties props = new Properties();
+    props.setProperty("index", "cpd.jar|CA124VADFSDS\nsquid.jar|34535FSFSDF\n");
+    cache.putMetadata("http://localhost:9000/batch/index", props);
+
+    assertThat(cache.getMetadata("http://localhost:9000/batch/index")).isEqualTo(props);
+    assertThat(cache.getMetadata("http://otherhost/batch/index")).isNull();
+  }
+
+  @Test
+  public void replace_metadata() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    Properties first = new Properties();
+    first.setProperty("etag", "first");
+    cache.putMetadata("key", first);
+    Properties second = new Properties();
+    second.setProperty("etag", "second");
+    cache.putMetadata("key", second);
+
+    assertThat(cache.getMetadata("key").getProperty("etag")).isEqualTo("second");
+  }
+
+  @Test
+  public void resume_interrupted_download() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+    FileCache.ResumableDownloader interrupted = new ResumableDownloader() {
+      @Override
+      public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+        assertThat(partialDownload.length()).isZero();
+        try (OutputStream out = partialDownload.open(false, "\"v1\"")) {
+          out.write("bo".getBytes(StandardCharsets.UTF_8));
+        }
+        throw new IOException("Read timed out");
+      }
+    };
+    try {
+      cache.get("sonar-foo-plugin-1.5.jar", hash, interrupted);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageStartingWith("Fail to download sonar-foo-plugin-1.5.jar");
+    }
+
+    File cachedFile = cache.get("sonar-foo-plugin-1.5.jar", hash, new ResumableDownloader() {
+      @Override
+      public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+        assertThat(partialDownload.length()).isEqualTo(2L);
+        assertThat(partialDownload.validator()).isEqualTo("\"v1\"");
+        try (OutputStream out = partialDownload.open(true, "\"v1\"")) {
+          out.write("dy".getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    });
+
+    assertThat(read(cachedFile)).isEqualTo("body");
+    assertThat(new File(cache.getDir(), "_tmp/" + hash + ".part")).doesNotExist();
+    assertThat(new File(cache.getDir(), "_tmp/" + hash + ".part.validator")).doesNotExist();
+  }
+
+  @Test
+  public void restart_download_if_partial_content_is_discarded() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+    write(new File(cache.getDir(), "_tmp/" + hash + ".part"), "stale");
+    write(new File(cache.getDir(), "_tmp/" + hash + ".part.validator"), "\"v0\"");
+
+    File cachedFile = cache.get("sonar-foo-plugin-1.5.jar", hash, new ResumableDownloader() {
+      @Override
+      public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+        assertThat(partialDownload.length()).isEqualTo(5L);
+        try (OutputStream out = partialDownload.open(false, null)) {
+          out.write("body".getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    });
+
+    assertThat(read(cachedFile)).isEqualTo("body");
+  }
+
+  @Test
+  public void delete_partial_download_if_corrupted() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+    try {
+      cache.get("sonar-foo-plugin-1.5.jar", hash, new ResumableDownloader() {
+        @Override
+        public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+          try (OutputStream out = partialDownload.open(false, "\"v1\"")) {
+            out.write("corrupted body".getBytes(StandardCharsets.UTF_8));
+          }
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("INVALID HASH");
+    }
+    assertThat(new File(cache.getDir(), "_tmp/" + hash + ".part")).doesNotExist();
+  }
+
+  @Test
+  public void use_partial_file_of_process_if_not_locked() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    // lock files can't be created
+    write(new File(cache.getDir(), "_locks"), "");
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+
+    File cachedFile = cache.get("sonar-foo-plugin-1.5.jar", hash, new ResumableDownloader() {
+      @Override
+      public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+        try (OutputStream out = partialDownload.open(false, null)) {
+          out.write("body".getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(new File(cache.getDir(), "_tmp/" + hash + ".part")).doesNotExist();
+        assertThat(new File(cache.getDir(), "_tmp").list()).hasSize(1);
+        assertThat(new File(cache.getDir(), "_tmp").list()[0]).startsWith(hash + "-").endsWith(".part");
+      }
+    });
+
+    assertThat(read(cachedFile)).isEqualTo("body");
+  }
+
+  @Test
+  public void delete_partial_file_of_process_if_download_fails() throws IOException {
+    FileCache cache = FileCache.create(tempFolder.newFolder(), mock(Logger.class));
+    // lock files can't be created
+    write(new File(cache.getDir(), "_locks"), "");
+    String hash = new FileHashes().of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+
+    try {
+      cache.get("sonar-foo-plugin-1.5.jar", hash, new ResumableDownloader() {
+        @Override
+        public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+          try (OutputStream out = partialDownload.open(false, "\"v1\"")) {
+            out.write("bo".getBytes(StandardCharsets.UTF_8));
+          }
+          throw new IOException("Read timed out");
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageStartingWith("Fail to download sonar-foo-plugin-1.5.jar");
+    }
+    assertThat(new File(cache.getDir(), "_tmp").list()).isEmpty();
+  }
+
+  private abstract static class ResumableDownloader implements FileCache.ResumableDownloader {
+    @Override
+    public void download(String filename, File toFile) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class BodyDownloader extends ResumableDownloader {
+    private final String body;
+
+    BodyDownloader(String body) {
+      this.body = body;
+    }
+
+    @Override
+    public void download(String filename, FileCache.PartialDownload partialDownload) throws IOException {
+      try (OutputStream out = partialDownload.open(false, null)) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private static void write(File f, String txt) throws IOException {
     Files.createDirectories(f.toPath().getParent());
     Files.write(f.toPath(), txt.getBytes(StandardCharsets.UTF_8));
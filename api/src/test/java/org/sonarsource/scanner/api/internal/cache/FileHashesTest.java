@@ -34,6 +34,11 @@ import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -83,6 +88,48 @@ public class FileHashesTest {
     }
   }
 
+  @Test
+  public void test_toHex_with_leading_zeros() {
+    assertThat(FileHashes.toHex(new byte[] {0, 1, (byte) 0xFF})).isEqualTo("0001ff");
+    assertThat(FileHashes.toHex(new byte[0])).isEmpty();
+  }
+
+  @Test
+  public void test_hash_file_bigger_than_buffer() throws IOException {
+    byte[] content = new byte[300 * 1024 + 17];
+    secureRandom.nextBytes(content);
+    File f = temp.newFile();
+    Files.write(f.toPath(), content);
+
+    assertThat(hashFile(f)).isEqualTo(DigestUtils.md5Hex(content));
+  }
+
+  @Test
+  public void reuse_digest_after_failure() throws Exception {
+    InputStream input = mock(InputStream.class);
+    when(input.read(any(byte[].class), anyInt(), anyInt())).thenReturn(3).thenThrow(new IOException("closed"));
+    try {
+      new FileHashes().of(input);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertThat(hash("sonar")).isEqualTo("d85e336d61f5344395c42126fac239bc");
+  }
+
+  @Test
+  public void hash_concurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<String>> hashes = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      hashes.add(executor.submit(() -> hash("sonar")));
+    }
+    for (Future<String> hash : hashes) {
+      assertThat(hash.get()).isEqualTo("d85e336d61f5344395c42126fac239bc");
+    }
+    executor.shutdown();
+  }
+
   @Test
   public void fail_if_file_does_not_exist() throws IOException {
     File file = temp.newFile("does_not_exist");
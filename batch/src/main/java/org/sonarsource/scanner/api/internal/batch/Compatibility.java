@@ -27,7 +27,7 @@ public class Compatibility {
   }
 
   static void setLogOutputFor5dot2(Batch.Builder builder, final LogOutput logOutput) {
-    builder.setLogOutput((formattedMessage, level) -> logOutput.log(formattedMessage, LogOutput.Level.valueOf(level.name())));
+    builder.setLogOutput(new EngineLogOutputBridge(logOutput));
   }
 
 }
@@ -0,0 +1,61 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.batch;
+
+/**
+ * Forwards the logs of the engine to the {@link LogOutput} given by the scanner API. Levels are mapped with a
+ * table computed once instead of being looked up by name for each message.
+ */
+class EngineLogOutputBridge implements org.sonar.batch.bootstrapper.LogOutput {
+
+  private static final LogOutput.Level[] LEVELS;
+
+  static {
+    org.sonar.batch.bootstrapper.LogOutput.Level[] engineLevels = org.sonar.batch.bootstrapper.LogOutput.Level.values();
+    LEVELS = new LogOutput.Level[engineLevels.length];
+    for (org.sonar.batch.bootstrapper.LogOutput.Level level : engineLevels) {
+      LEVELS[level.ordinal()] = levelOf(level.name());
+    }
+  }
+
+  /**
+   * Levels unknown to the scanner API are logged as {@link LogOutput.Level#INFO}, so that a newer engine can't prevent
+   * this class from being initialized.
+   */
+  static LogOutput.Level levelOf(String name) {
+    for (LogOutput.Level level : LogOutput.Level.values()) {
+      if (level.name().equals(name)) {
+        return level;
+      }
+    }
+    return LogOutput.Level.INFO;
+  }
+
+  private final LogOutput logOutput;
+
+  EngineLogOutputBridge(LogOutput logOutput) {
+    this.logOutput = logOutput;
+  }
+
+  @Override
+  public void log(String formattedMessage, Level level) {
+    logOutput.log(formattedMessage, LEVELS[level.ordinal()]);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SonarQube Scanner API
+ * Copyright (C) 2011-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.api.internal.batch;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class EngineLogOutputBridgeTest {
+
+  @Test
+  public void should_map_every_level() {
+    LogOutput logOutput = mock(LogOutput.class);
+    EngineLogOutputBridge bridge = new EngineLogOutputBridge(logOutput);
+
+    for (org.sonar.batch.bootstrapper.LogOutput.Level level : org.sonar.batch.bootstrapper.LogOutput.Level.values()) {
+      bridge.log("msg", level);
+
+      verify(logOutput).log("msg", LogOutput.Level.valueOf(level.name()));
+    }
+  }
+
+  @Test
+  public void should_log_unknown_levels_as_info() {
+    assertThat(EngineLogOutputBridge.levelOf("WARN")).isEqualTo(LogOutput.Level.WARN);
+    assertThat(EngineLogOutputBridge.levelOf("NOTICE")).isEqualTo(LogOutput.Level.INFO);
+  }
+}